@@ -0,0 +1,95 @@
+package com.siano.benchmarks;
+
+import com.siano.GameEngine;
+import com.siano.SimulatedClock;
+import com.siano.input.NoteEventQueue;
+import com.siano.utils.MidiReader;
+import com.siano.utils.Song;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.sound.midi.InvalidMidiDataException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Game loop throughput on a headless {@link SimulatedClock}, with a perfect
+ * player that answers every target through an input queue.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GameEngineBenchmark {
+
+    private static final int NOTE_COUNT = 20_000;
+
+    private Song song;
+    private GameEngine engine;
+    private SimulatedClock clock;
+    private NoteEventQueue input;
+    // Below the range of the synthetic songs, so it is never a target.
+    private static final int WRONG_KEY = 20;
+
+    @Setup
+    public void setUp() throws InvalidMidiDataException {
+        song = new MidiReader().parse(ByteBuffer.wrap(SyntheticSongs.midiFile(NOTE_COUNT, 42)));
+        clock = SimulatedClock.atFrameRate(60);
+        input = new NoteEventQueue(256);
+        engine = new GameEngine();
+        engine.setClock(clock);
+        engine.addInputQueue(input);
+        engine.setOnTargetNotesChanged(new GameEngine.TargetListener() {
+            @Override
+            public void onTargetAdded(int midiKey) {
+                input.offer(midiKey, 64, clock.nanoTime());
+            }
+
+            @Override
+            public void onTargetRemoved(int midiKey) {
+            }
+        });
+    }
+
+    @Setup(Level.Iteration)
+    public void restart() {
+        engine.setNoteEvents(song);
+        engine.start();
+    }
+
+    /**
+     * One 60 fps frame: drain input, judge it and advance the song.
+     */
+    @Benchmark
+    public GameEngine.State frame() {
+        if (!clock.step() || engine.getState() == GameEngine.State.FINISHED)
+            restart();
+        return engine.getState();
+    }
+
+    /**
+     * Judging a note while the engine waits. The key is never a target and
+     * the queued answer is not drained, so the engine stays frozen and every
+     * call does the same work.
+     */
+    @Benchmark
+    public GameEngine.State wrongNote() {
+        while (engine.getState() == GameEngine.State.PLAYING)
+            clock.step();
+        if (engine.getState() == GameEngine.State.FINISHED)
+            restart();
+        engine.handleInputNote(WRONG_KEY, 64, clock.nanoTime());
+        return engine.getState();
+    }
+}
@@ -0,0 +1,66 @@
+package com.siano.benchmarks;
+
+import com.siano.utils.MidiReader;
+import com.siano.utils.Song;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.sound.midi.InvalidMidiDataException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MIDI decoding on synthetic songs of growing size, both from memory and
+ * through {@link MidiReader#readNoteEvents(Path)} with its file mapping.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MidiParsingBenchmark {
+
+    @Param({ "1000", "10000", "100000", "1000000" })
+    public int noteCount;
+
+    private final MidiReader reader = new MidiReader();
+    private ByteBuffer data;
+    private Path file;
+
+    @Setup
+    public void setUp() throws IOException {
+        byte[] bytes = SyntheticSongs.midiFile(noteCount, 42);
+        data = ByteBuffer.allocateDirect(bytes.length).put(bytes).flip();
+        file = Files.createTempFile("siano-bench-", ".mid");
+        Files.write(file, bytes);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public Song parse() throws InvalidMidiDataException {
+        return reader.parse(data);
+    }
+
+    @Benchmark
+    public Song readNoteEvents() throws InvalidMidiDataException, IOException {
+        return reader.readNoteEvents(file);
+    }
+}
@@ -0,0 +1,67 @@
+package com.siano.benchmarks;
+
+import com.siano.ui.KeyboardLayout;
+import com.siano.ui.NoteProjection;
+import com.siano.utils.MidiReader;
+import com.siano.utils.Song;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.sound.midi.InvalidMidiDataException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-frame culling and geometry of the falling notes view, without
+ * JavaFX: one invocation is one frame, advancing through the song at 60 fps.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NoteProjectionBenchmark {
+
+    private static final double PIXELS_PER_SECOND = 150;
+
+    @Param({ "10000", "200000" })
+    public int noteCount;
+
+    @Param({ "600", "1400" })
+    public double viewHeight;
+
+    private NoteProjection projection;
+    private double lastTick;
+    private double tickPerFrame;
+    private double tick;
+
+    @Setup
+    public void setUp() throws InvalidMidiDataException {
+        byte[] bytes = SyntheticSongs.midiFile(noteCount, 42);
+        Song song = new MidiReader().parse(ByteBuffer.wrap(bytes));
+        KeyboardLayout layout = new KeyboardLayout();
+        layout.setWidth(1200);
+        projection = new NoteProjection(layout, PIXELS_PER_SECOND);
+        projection.setSong(song);
+        lastTick = song.getLastTick();
+        tickPerFrame = song.getTempoMap().microsToTick(1_000_000.0 / 60);
+    }
+
+    @Benchmark
+    public int projectFrame() {
+        tick += tickPerFrame;
+        if (tick > lastTick)
+            tick = 0;
+        return projection.project(tick, viewHeight, viewHeight);
+    }
+}
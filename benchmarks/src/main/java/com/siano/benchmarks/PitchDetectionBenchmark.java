@@ -0,0 +1,98 @@
+package com.siano.benchmarks;
+
+import be.tarsos.dsp.AudioEvent;
+import be.tarsos.dsp.io.TarsosDSPAudioFormat;
+import be.tarsos.dsp.pitch.PitchDetectionResult;
+import be.tarsos.dsp.pitch.Yin;
+import com.siano.audio.FastYin;
+import com.siano.audio.PolyphonicPitchProcessor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-buffer analysis cost of both detection modes of the pitch detector,
+ * and of both YIN implementations, on generated signals: a single
+ * piano-like tone and a four-note chord.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PitchDetectionBenchmark {
+
+    private static final float SAMPLE_RATE = 44100;
+    private static final int[] SINE_KEYS = { 69 };
+    private static final int[] CHORD_KEYS = { 48, 60, 64, 67 };
+
+    @Param({ "sine", "chord" })
+    public String signal;
+
+    @Param({ "1024", "2048" })
+    public int bufferSize;
+
+    private float[] samples;
+    private Yin yin;
+    private FastYin fastYin;
+    private PolyphonicPitchProcessor polyphonic;
+    private AudioEvent event;
+    private int detected;
+
+    @Setup
+    public void setUp() {
+        samples = generate(signal.equals("chord") ? CHORD_KEYS : SINE_KEYS, bufferSize);
+        yin = new Yin(SAMPLE_RATE, bufferSize);
+        fastYin = new FastYin(SAMPLE_RATE, bufferSize, (result, audioEvent) -> {
+        });
+        polyphonic = new PolyphonicPitchProcessor(SAMPLE_RATE, bufferSize,
+                (keys, levels, count, audioEvent) -> detected = count);
+        event = new AudioEvent(new TarsosDSPAudioFormat(SAMPLE_RATE, 16, 1, true, false));
+        event.setFloatBuffer(samples);
+    }
+
+    @Benchmark
+    public float yin() {
+        PitchDetectionResult result = yin.getPitch(samples);
+        return result.getPitch();
+    }
+
+    @Benchmark
+    public float fastYin() {
+        PitchDetectionResult result = fastYin.getPitch(samples);
+        return result.getPitch();
+    }
+
+    @Benchmark
+    public void polyphonic(Blackhole blackhole) {
+        polyphonic.process(event);
+        blackhole.consume(detected);
+    }
+
+    // Each key gets four harmonics with decaying amplitude, like a soft piano tone.
+    private static float[] generate(int[] keys, int length) {
+        float[] buffer = new float[length];
+        for (int key : keys) {
+            double frequency = 440.0 * Math.pow(2, (key - 69) / 12.0);
+            for (int h = 1; h <= 4; h++) {
+                double amplitude = 0.2 / keys.length / h;
+                double step = 2 * Math.PI * frequency * h / SAMPLE_RATE;
+                for (int i = 0; i < length; i++)
+                    buffer[i] += (float) (amplitude * Math.sin(step * i));
+            }
+        }
+        return buffer;
+    }
+}
@@ -0,0 +1,109 @@
+package com.siano.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+/**
+ * Deterministic Standard MIDI Files for benchmarks: a tempo track with a
+ * mid-song tempo change plus four note tracks, using running status like
+ * most real files do.
+ */
+final class SyntheticSongs {
+
+    static final int RESOLUTION = 480;
+    private static final int TRACKS = 4;
+
+    private SyntheticSongs() {
+    }
+
+    static byte[] midiFile(int noteCount, long seed) {
+        Random random = new Random(seed);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeInt(out, 0x4D546864);
+        writeInt(out, 6);
+        writeShort(out, 1);
+        writeShort(out, TRACKS + 1);
+        writeShort(out, RESOLUTION);
+
+        ByteArrayOutputStream tempo = new ByteArrayOutputStream();
+        writeTempo(tempo, 0, 500_000);
+        writeTempo(tempo, RESOLUTION * 16, 400_000);
+        endTrack(tempo);
+        writeTrack(out, tempo.toByteArray());
+
+        for (int track = 0; track < TRACKS; track++) {
+            ByteArrayOutputStream events = new ByteArrayOutputStream();
+            // Note-offs are written as note-on with velocity 0, so one running status covers the track.
+            events.write(0);
+            events.write(0x90 | track);
+            boolean first = true;
+            for (int i = track; i < noteCount; i += TRACKS) {
+                int key = 36 + random.nextInt(60);
+                int length = RESOLUTION / 4 + random.nextInt(RESOLUTION);
+                if (!first)
+                    writeVariableLength(events, random.nextInt(3) == 0 ? 0 : RESOLUTION / 2);
+                first = false;
+                events.write(key);
+                events.write(40 + random.nextInt(80));
+                writeVariableLength(events, length);
+                events.write(key);
+                events.write(0);
+            }
+            if (first) {
+                events.reset();
+            }
+            endTrack(events);
+            writeTrack(out, events.toByteArray());
+        }
+        return out.toByteArray();
+    }
+
+    private static void writeTempo(ByteArrayOutputStream out, int deltaTicks, int microsPerQuarter) {
+        writeVariableLength(out, deltaTicks);
+        out.write(0xFF);
+        out.write(0x51);
+        out.write(3);
+        out.write(microsPerQuarter >> 16);
+        out.write(microsPerQuarter >> 8);
+        out.write(microsPerQuarter);
+    }
+
+    private static void endTrack(ByteArrayOutputStream out) {
+        out.write(0);
+        out.write(0xFF);
+        out.write(0x2F);
+        out.write(0);
+    }
+
+    private static void writeTrack(ByteArrayOutputStream out, byte[] events) {
+        writeInt(out, 0x4D54726B);
+        writeInt(out, events.length);
+        out.write(events, 0, events.length);
+    }
+
+    private static void writeVariableLength(ByteArrayOutputStream out, int value) {
+        int buffer = value & 0x7F;
+        while ((value >>= 7) > 0) {
+            buffer <<= 8;
+            buffer |= (value & 0x7F) | 0x80;
+        }
+        while (true) {
+            out.write(buffer & 0xFF);
+            if ((buffer & 0x80) == 0)
+                break;
+            buffer >>>= 8;
+        }
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    private static void writeShort(ByteArrayOutputStream out, int value) {
+        out.write(value >>> 8);
+        out.write(value);
+    }
+}
@@ -0,0 +1,24 @@
+package com.siano;
+
+/**
+ * Drives the game loop. A started clock calls its listener with the time
+ * that passed since the previous tick, always on the same thread, until it
+ * is stopped. Implementations decide what that time is: the JavaFX pulse,
+ * a fixed simulated step, or anything else a harness needs.
+ */
+public interface GameClock {
+
+    interface Listener {
+        void onTick(double deltaSeconds);
+    }
+
+    void start(Listener listener);
+
+    void stop();
+
+    /**
+     * @return current time of this clock in nanoseconds, comparable with the
+     *         timestamps its input sources produce
+     */
+    long nanoTime();
+}
@@ -1,14 +1,22 @@
 package com.siano;
 
-import com.siano.utils.MidiReader;
-import javafx.animation.AnimationTimer;
-import javafx.application.Platform;
+import com.siano.input.NoteEventQueue;
+import com.siano.utils.KeyNoteIndex;
+import com.siano.utils.KeySet;
+import com.siano.utils.Song;
+import com.siano.utils.TempoMap;
 
-import java.util.HashSet;
-import java.util.List;
-import java.util.Set;
-import java.util.function.Consumer;
+import java.util.Arrays;
+import java.util.function.DoubleConsumer;
 
+/**
+ * Game logic. In wait mode the song freezes at every chord until it is
+ * played; in real-time mode it keeps running and each played note is matched
+ * to the earliest unplayed note of the same key whose timing window it falls
+ * in. The engine has no thread or timer of its own: a {@link GameClock} calls
+ * {@link #update} and input queues are drained there, so the same engine runs
+ * under the JavaFX pulse or headless in a simulation.
+ */
 public class GameEngine {
 
     public enum State {
@@ -17,48 +25,305 @@ public class GameEngine {
         FINISHED
     }
 
-    private List<List<MidiReader.MidiNote>> noteEvents;
+    public enum PlayMode {
+        WAIT,
+        REALTIME
+    }
+
+    public enum Timing {
+        EARLY,
+        ON_TIME,
+        LATE,
+        MISS
+    }
+
+    // Timing limits in wall-clock time, so they do not widen at slow practice speeds.
+    private static final double MATCH_WINDOW_MICROS = 150_000;
+    private static final double ON_TIME_MICROS = 50_000;
+    // A note counts as missed only this long after its window closed, since a
+    // hit inside the window reaches the engine after pitch detection and queueing.
+    private static final double INPUT_DELAY_MICROS = 100_000;
+
+    private Song song;
+    private TempoMap tempoMap;
     private int currentEventIndex = 0;
     private double currentTick = 0;
+    private double currentMicros = 0;
     private State currentState = State.FINISHED;
 
     public State getState() {
         return currentState;
     }
 
-    private final Set<Integer> targetNotes = new HashSet<>();
-    private final Set<Integer> pressedNotes = new HashSet<>();
+    private final KeySet targetNotes = new KeySet();
+
+    private PlayMode playMode = PlayMode.WAIT;
+    private boolean realtime = false;
+    private KeyNoteIndex keyIndex;
+    private Song indexedSong;
+    private boolean[] played = new boolean[0];
+    private int missCursor = 0;
+    private final int[] timingCounts = new int[4];
+    // Clock time the current song position belongs to; input timestamps are
+    // converted to song time relative to it.
+    private long positionNanos;
+
+    private boolean loopActive = false;
+    private double loopStartTick;
+    private double loopEndTick;
+
+    private GameClock clock;
+    private final GameClock.Listener clockListener = this::update;
+    private volatile double playbackSpeed = 1.0;
 
-    private AnimationTimer timer;
-    private long lastTime = 0;
-    private static final double TEMPO_MULTIPLIER = 1.0;
-    private double ticksPerSecond = 200.0;
+    private NoteEventQueue[] inputQueues = new NoteEventQueue[0];
+    private final NoteEventQueue.Handler queuedInputHandler = this::handleInputNote;
+    private long processedInputCount = 0;
 
-    private Consumer<Double> onTickUpdate;
-    private Consumer<Set<Integer>> onTargetNotesChanged;
+    private DoubleConsumer onTickUpdate;
+    private TargetListener onTargetNotesChanged;
     private Runnable onGameFinished;
-    private Consumer<NoteFeedback> onNoteFeedback;
+    private FeedbackListener onNoteFeedback;
+    private TimingListener onTiming;
 
-    public record NoteFeedback(int key, boolean isCorrect) {
+    /**
+     * Told about each key that becomes or stops being a target, so listeners
+     * can keep their own state in step without copying the target set.
+     */
+    public interface TargetListener {
+        void onTargetAdded(int midiKey);
+
+        void onTargetRemoved(int midiKey);
+    }
+
+    public interface FeedbackListener {
+        /**
+         * @param timestampNanos capture time of the judged note
+         */
+        void onNoteFeedback(int midiKey, boolean isCorrect, long timestampNanos);
     }
 
-    public void setOnNoteFeedback(Consumer<NoteFeedback> callback) {
+    /**
+     * Judgements of real-time mode. A miss is reported once the note's
+     * window has passed without it being played.
+     */
+    public interface TimingListener {
+        /**
+         * @param note         index of the judged note in the song
+         * @param offsetMillis how far the note was played after (positive)
+         *                     or before its start, in wall-clock time; 0 for
+         *                     a miss
+         */
+        void onTiming(int note, int midiKey, Timing timing, double offsetMillis);
+    }
+
+    /**
+     * Sees everything that changes the engine's course, in order, on the
+     * game loop thread. Used to record sessions; implementations must be
+     * cheap and must not call back into the engine.
+     */
+    public interface Observer {
+        void onSongLoaded(Song song, PlayMode playMode);
+
+        /**
+         * Called once per update, after queued input was handled and before
+         * the song position advances.
+         *
+         * @param frameNanos clock time the advanced position will belong to
+         */
+        void onFrame(double deltaSeconds, double playbackSpeed, long frameNanos);
+
+        void onInput(int midiKey, int velocity, long timestampNanos);
+
+        void onStateChanged(State state, int eventIndex, double tick);
+
+        void onSeek(double tick);
+
+        /**
+         * @param startTick NaN when the loop was cleared
+         */
+        void onLoopChanged(double startTick, double endTick);
+    }
+
+    private Observer observer;
+
+    public void setOnNoteFeedback(FeedbackListener callback) {
         this.onNoteFeedback = callback;
     }
 
-    public void setNoteEvents(List<List<MidiReader.MidiNote>> events) {
-        this.noteEvents = events;
+    public void setOnTiming(TimingListener callback) {
+        this.onTiming = callback;
+    }
+
+    public void setObserver(Observer observer) {
+        this.observer = observer;
+    }
+
+    public void setNoteEvents(Song song) {
+        this.song = song;
+        this.tempoMap = song.getTempoMap();
         this.currentEventIndex = 0;
         this.currentTick = 0;
-        this.currentState = State.PLAYING;
+        this.currentMicros = 0;
+        this.loopActive = false;
+        Arrays.fill(timingCounts, 0);
+        realtime = playMode == PlayMode.REALTIME;
+        if (realtime) {
+            if (indexedSong != song) {
+                keyIndex = song.getKeyIndex();
+                played = new boolean[song.getNoteCount()];
+                indexedSong = song;
+            }
+            resetJudgements(0);
+        }
+        clearTargets();
+        if (observer != null)
+            observer.onSongLoaded(song, playMode);
+        changeState(State.PLAYING);
         findNextTarget();
     }
 
-    public void setOnTickUpdate(Consumer<Double> callback) {
+    public PlayMode getPlayMode() {
+        return playMode;
+    }
+
+    /**
+     * Takes effect on the next {@link #setNoteEvents}.
+     */
+    public void setPlayMode(PlayMode playMode) {
+        this.playMode = playMode;
+    }
+
+    /**
+     * @return whether the current song is played in real-time mode
+     */
+    public boolean isRealtime() {
+        return realtime;
+    }
+
+    /**
+     * @return real-time judgements of this kind since the song was loaded
+     */
+    public int getTimingCount(Timing timing) {
+        return timingCounts[timing.ordinal()];
+    }
+
+    public Song getSong() {
+        return song;
+    }
+
+    public int getCurrentEventIndex() {
+        return currentEventIndex;
+    }
+
+    public double getCurrentTick() {
+        return currentTick;
+    }
+
+    /**
+     * Jumps to {@code tick}; the next event at or after it becomes the next
+     * target. Listeners get the new position immediately.
+     */
+    public void seekToTick(double tick) {
+        if (song == null)
+            return;
+        if (observer != null)
+            observer.onSeek(tick);
+        jumpTo(tick);
+    }
+
+    /**
+     * @param measure zero-based measure number
+     */
+    public void seekToMeasure(int measure) {
+        if (song != null)
+            seekToTick(song.getMeterMap().measureStartTick(Math.max(0, measure)));
+    }
+
+    public int getCurrentMeasure() {
+        return song == null ? 0 : song.getMeterMap().measureAt(currentTick);
+    }
+
+    /**
+     * Repeats {@code [startTick, endTick)}: when playback reaches the end it
+     * jumps back to the start. Events at or after the end are not waited for.
+     */
+    public void setLoop(double startTick, double endTick) {
+        if (!(endTick > startTick))
+            throw new IllegalArgumentException("Loop end must be after its start: " + startTick + ".." + endTick);
+        if (observer != null)
+            observer.onLoopChanged(startTick, endTick);
+        loopActive = true;
+        loopStartTick = startTick;
+        loopEndTick = endTick;
+        if (currentTick < startTick || currentTick >= endTick)
+            jumpTo(startTick);
+    }
+
+    public void clearLoop() {
+        if (observer != null)
+            observer.onLoopChanged(Double.NaN, Double.NaN);
+        loopActive = false;
+    }
+
+    public boolean isLooping() {
+        return loopActive;
+    }
+
+    public double getLoopStartTick() {
+        return loopStartTick;
+    }
+
+    public double getLoopEndTick() {
+        return loopEndTick;
+    }
+
+    private void jumpTo(double tick) {
+        double clamped = Math.max(0, tick);
+        currentEventIndex = song.eventAtOrAfter(clamped);
+        currentTick = clamped;
+        currentMicros = tempoMap.tickToMicros(clamped);
+        if (realtime)
+            resetJudgements(currentEventIndex < song.getEventCount() ? song.eventStart(currentEventIndex)
+                    : song.getNoteCount());
+        clearTargets();
+        changeState(State.PLAYING);
+        if (onTickUpdate != null)
+            onTickUpdate.accept(currentTick);
+    }
+
+    public boolean isTarget(int midiKey) {
+        return targetNotes.contains(midiKey);
+    }
+
+    public int getTargetCount() {
+        return targetNotes.size();
+    }
+
+    private void changeState(State state) {
+        currentState = state;
+        if (observer != null)
+            observer.onStateChanged(state, currentEventIndex, currentTick);
+    }
+
+    public double getPlaybackSpeed() {
+        return playbackSpeed;
+    }
+
+    /**
+     * Practice speed relative to the song's own tempo; 1.0 plays as written.
+     */
+    public void setPlaybackSpeed(double playbackSpeed) {
+        if (playbackSpeed <= 0)
+            throw new IllegalArgumentException("Playback speed must be positive: " + playbackSpeed);
+        this.playbackSpeed = playbackSpeed;
+    }
+
+    public void setOnTickUpdate(DoubleConsumer callback) {
         this.onTickUpdate = callback;
     }
 
-    public void setOnTargetNotesChanged(Consumer<Set<Integer>> callback) {
+    public void setOnTargetNotesChanged(TargetListener callback) {
         this.onTargetNotesChanged = callback;
     }
 
@@ -66,82 +331,259 @@ public class GameEngine {
         this.onGameFinished = callback;
     }
 
+    /**
+     * Registers a queue that an input thread fills; it is drained once per
+     * {@link #update} on the game loop thread.
+     */
+    public void addInputQueue(NoteEventQueue queue) {
+        NoteEventQueue[] queues = Arrays.copyOf(inputQueues, inputQueues.length + 1);
+        queues[inputQueues.length] = queue;
+        inputQueues = queues;
+    }
+
+    public void removeInputQueue(NoteEventQueue queue) {
+        inputQueues = Arrays.stream(inputQueues).filter(q -> q != queue).toArray(NoteEventQueue[]::new);
+    }
+
+    public long getProcessedInputCount() {
+        return processedInputCount;
+    }
+
+    /**
+     * @return events lost because an input queue was full
+     */
+    public long getDroppedInputCount() {
+        long dropped = 0;
+        for (NoteEventQueue queue : inputQueues)
+            dropped += queue.getDroppedCount();
+        return dropped;
+    }
+
+    public GameClock getClock() {
+        return clock;
+    }
+
+    /**
+     * Takes effect on the next {@link #start}.
+     */
+    public void setClock(GameClock clock) {
+        this.clock = clock;
+    }
+
     public void start() {
-        if (timer != null)
-            timer.stop();
-        lastTime = System.nanoTime();
-        timer = new AnimationTimer() {
-            @Override
-            public void handle(long now) {
-                update((now - lastTime) / 1_000_000_000.0);
-                lastTime = now;
-            }
-        };
-        timer.start();
+        if (clock == null)
+            throw new IllegalStateException("No game clock set");
+        clock.stop();
+        clock.start(clockListener);
     }
 
     public void stop() {
-        if (timer != null)
-            timer.stop();
+        if (clock != null)
+            clock.stop();
     }
 
-    private void update(double deltaTime) {
-        if (currentState == State.FINISHED)
+    /**
+     * Advances the game by {@code deltaTime} seconds of wall time. Normally
+     * called by the clock; must not run concurrently with itself or with
+     * {@link #handleInputNote}.
+     */
+    public void update(double deltaTime) {
+        update(deltaTime, clock != null ? clock.nanoTime() : System.nanoTime());
+    }
+
+    /**
+     * @param frameNanos clock time the advanced song position belongs to
+     */
+    public void update(double deltaTime, long frameNanos) {
+        NoteEventQueue[] queues = inputQueues;
+        for (int i = 0; i < queues.length; i++)
+            processedInputCount += queues[i].drain(queuedInputHandler);
+
+        if (currentState == State.FINISHED) {
+            positionNanos = frameNanos;
             return;
+        }
+        if (observer != null)
+            observer.onFrame(deltaTime, playbackSpeed, frameNanos);
+        positionNanos = frameNanos;
 
         if (currentState == State.PLAYING) {
-            currentTick += ticksPerSecond * deltaTime;
+            currentMicros += deltaTime * 1_000_000.0 * playbackSpeed;
+            currentTick = tempoMap.microsToTick(currentMicros);
+            if (loopActive && currentTick >= loopEndTick) {
+                if (realtime)
+                    judgeMissesBefore(loopEndTick);
+                jumpTo(loopStartTick);
+            }
             if (onTickUpdate != null)
                 onTickUpdate.accept(currentTick);
 
-            checkIfNeedToFreeze();
+            if (realtime)
+                advanceRealtime();
+            else
+                checkIfNeedToFreeze();
         } else if (currentState == State.FROZEN) {
             checkInput();
         }
     }
 
     private void checkIfNeedToFreeze() {
-        if (currentEventIndex >= noteEvents.size()) {
-            currentState = State.FINISHED;
+        if (currentEventIndex >= song.getEventCount()) {
+            if (loopActive)
+                return;
+            changeState(State.FINISHED);
             if (onGameFinished != null)
                 onGameFinished.run();
             return;
         }
 
-        List<MidiReader.MidiNote> nextEvent = noteEvents.get(currentEventIndex);
-        if (nextEvent.isEmpty())
+        long targetTick = song.eventTick(currentEventIndex);
+        if (loopActive && targetTick >= loopEndTick)
             return;
 
-        long targetTick = nextEvent.get(0).startTick;
-
         if (currentTick >= targetTick) {
             currentTick = targetTick;
-            currentState = State.FROZEN;
-            targetNotes.clear();
-            for (MidiReader.MidiNote note : nextEvent) {
-                targetNotes.add(note.key);
+            currentMicros = tempoMap.tickToMicros(targetTick);
+            changeState(State.FROZEN);
+            clearTargets();
+            for (int note = song.eventStart(currentEventIndex); note < song.eventEnd(currentEventIndex); note++) {
+                int key = song.key(note);
+                if (targetNotes.add(key) && onTargetNotesChanged != null)
+                    onTargetNotesChanged.onTargetAdded(key);
             }
-            if (onTargetNotesChanged != null)
-                onTargetNotesChanged.accept(targetNotes);
         }
     }
 
+    private void advanceRealtime() {
+        double missedMicros = currentMicros - (MATCH_WINDOW_MICROS + INPUT_DELAY_MICROS) * playbackSpeed;
+        judgeMissesBefore(missedMicros > 0 ? tempoMap.microsToTick(missedMicros) : 0);
+
+        // Targets only show what is due; the song does not wait for them.
+        int eventCount = song.getEventCount();
+        boolean cleared = false;
+        while (currentEventIndex < eventCount && song.eventTick(currentEventIndex) <= currentTick
+                && !(loopActive && song.eventTick(currentEventIndex) >= loopEndTick)) {
+            if (!cleared) {
+                clearTargets();
+                cleared = true;
+            }
+            for (int note = song.eventStart(currentEventIndex); note < song.eventEnd(currentEventIndex); note++) {
+                int key = song.key(note);
+                if (!played[note] && targetNotes.add(key) && onTargetNotesChanged != null)
+                    onTargetNotesChanged.onTargetAdded(key);
+            }
+            currentEventIndex++;
+        }
+
+        if (currentEventIndex >= eventCount && missCursor >= song.getNoteCount() && !loopActive) {
+            clearTargets();
+            changeState(State.FINISHED);
+            if (onGameFinished != null)
+                onGameFinished.run();
+        }
+    }
+
+    // Every unplayed note starting before the tick is past its window.
+    private void judgeMissesBefore(double tick) {
+        int noteCount = song.getNoteCount();
+        while (missCursor < noteCount && song.startTick(missCursor) < tick) {
+            if (!played[missCursor]) {
+                played[missCursor] = true;
+                int key = song.key(missCursor);
+                timingCounts[Timing.MISS.ordinal()]++;
+                if (targetNotes.remove(key) && onTargetNotesChanged != null)
+                    onTargetNotesChanged.onTargetRemoved(key);
+                if (onTiming != null)
+                    onTiming.onTiming(missCursor, key, Timing.MISS, 0);
+            }
+            missCursor++;
+        }
+    }
+
+    // Notes before firstNote are out of play; the rest can be judged again.
+    private void resetJudgements(int firstNote) {
+        Arrays.fill(played, 0, firstNote, true);
+        Arrays.fill(played, firstNote, played.length, false);
+        missCursor = firstNote;
+    }
+
+    // Matches the key to the earliest unplayed note of its own whose window
+    // contains the time it was captured. Taking the earliest rather than the
+    // closest keeps a steadily late player from taking the next note's place,
+    // which would leave that note's own hit unmatched. A binary search finds
+    // the window in the key's notes; only notes already played are stepped over.
+    private boolean judgeRealtime(int midiKey, long timestampNanos) {
+        if (currentState == State.FINISHED || midiKey < 0 || midiKey > 127)
+            return false;
+        double ageMicros = Math.max(0, (positionNanos - timestampNanos) / 1000.0);
+        double inputMicros = currentMicros - ageMicros * playbackSpeed;
+        double windowMicros = MATCH_WINDOW_MICROS * playbackSpeed;
+
+        int best = -1;
+        double bestOffset = 0;
+        int end = keyIndex.keyEnd(midiKey);
+        for (int position = keyIndex.firstAtOrAfter(midiKey, tempoMap.microsToTick(inputMicros - windowMicros));
+                position < end; position++) {
+            long startTick = keyIndex.startTick(position);
+            if (loopActive && startTick >= loopEndTick)
+                break;
+            double offset = inputMicros - tempoMap.tickToMicros(startTick);
+            if (offset < -windowMicros)
+                break;
+            if (!played[keyIndex.note(position)]) {
+                best = keyIndex.note(position);
+                bestOffset = offset;
+                break;
+            }
+        }
+        if (best < 0)
+            return false;
+
+        played[best] = true;
+        double offsetMicros = bestOffset / playbackSpeed;
+        Timing timing = Math.abs(offsetMicros) <= ON_TIME_MICROS ? Timing.ON_TIME
+                : offsetMicros < 0 ? Timing.EARLY : Timing.LATE;
+        timingCounts[timing.ordinal()]++;
+        if (targetNotes.remove(midiKey) && onTargetNotesChanged != null)
+            onTargetNotesChanged.onTargetRemoved(midiKey);
+        if (onTiming != null)
+            onTiming.onTiming(best, midiKey, timing, offsetMicros / 1000.0);
+        return true;
+    }
+
+    private void clearTargets() {
+        if (onTargetNotesChanged != null) {
+            for (int key = targetNotes.next(0); key >= 0; key = targetNotes.next(key + 1))
+                onTargetNotesChanged.onTargetRemoved(key);
+        }
+        targetNotes.clear();
+    }
+
     public void handleInputNote(String noteName, Integer midiKey) {
         if (midiKey == null)
             return;
+        handleInputNote(midiKey, 0, clock != null ? clock.nanoTime() : System.nanoTime());
+    }
 
+    /**
+     * @param timestampNanos {@link System#nanoTime()} at which the note was captured
+     */
+    public void handleInputNote(int midiKey, int velocity, long timestampNanos) {
+        if (observer != null)
+            observer.onInput(midiKey, velocity, timestampNanos);
         boolean isCorrect = false;
 
-        if (currentState == State.FROZEN) {
-            if (targetNotes.contains(midiKey)) {
-                targetNotes.remove(midiKey);
+        if (realtime) {
+            isCorrect = song != null && judgeRealtime(midiKey, timestampNanos);
+        } else if (currentState == State.FROZEN) {
+            if (targetNotes.remove(midiKey)) {
                 isCorrect = true;
                 if (onTargetNotesChanged != null)
-                    onTargetNotesChanged.accept(targetNotes);
+                    onTargetNotesChanged.onTargetRemoved(midiKey);
 
                 if (targetNotes.isEmpty()) {
-                    currentState = State.PLAYING;
                     currentEventIndex++;
+                    changeState(State.PLAYING);
                 }
             } else {
                 isCorrect = false;
@@ -151,7 +593,7 @@ public class GameEngine {
         }
 
         if (onNoteFeedback != null) {
-            onNoteFeedback.accept(new NoteFeedback(midiKey, isCorrect));
+            onNoteFeedback.onNoteFeedback(midiKey, isCorrect, timestampNanos);
         }
     }
 
@@ -1,19 +1,42 @@
 package com.siano;
 
 import com.siano.audio.PitchDetector;
+import com.siano.audio.SampleTap;
+import com.siano.input.MidiInputSource;
+import com.siano.input.NoteEventQueue;
+import com.siano.library.MidiLibraryIndexer;
+import com.siano.library.SongInfo;
+import com.siano.metrics.LatencyMetrics;
+import com.siano.session.SessionRecorder;
+import com.siano.session.SessionReplayer;
 import com.siano.ui.FallingNotesView;
+import com.siano.ui.FxPulseClock;
+import com.siano.ui.MetricsOverlay;
 import com.siano.ui.PianoKeyboard;
+import com.siano.ui.SpectrogramView;
+import com.siano.utils.KeySet;
+import com.siano.utils.MeterMap;
 import com.siano.utils.MidiReader;
-import com.siano.utils.MidiReader.MidiNote;
+import com.siano.utils.Song;
+import com.siano.utils.SongCache;
 import javafx.application.Application;
 import javafx.application.Platform;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
+import javafx.collections.transformation.FilteredList;
+import javafx.collections.transformation.SortedList;
 import javafx.geometry.Insets;
+import javafx.geometry.Pos;
 import javafx.scene.Scene;
 import javafx.scene.control.*;
+import javafx.scene.input.KeyCode;
+import javafx.scene.input.KeyEvent;
 import javafx.scene.layout.BorderPane;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.Priority;
+import javafx.scene.layout.StackPane;
 import javafx.scene.layout.VBox;
+import javafx.stage.FileChooser;
 import javafx.stage.Stage;
 
 import java.io.File;
@@ -21,41 +44,149 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Set;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class MainApp extends Application {
 
     private final MidiReader midiReader = new MidiReader();
+    private final SongCache songCache = new SongCache(Paths.get("midi-cache"), midiReader, 16);
     private final PitchDetector pitchDetector = new PitchDetector();
     private final GameEngine gameEngine = new GameEngine();
+    private final LatencyMetrics metrics = new LatencyMetrics();
 
     private PianoKeyboard pianoKeyboard;
     private FallingNotesView fallingNotesView;
-    private ListView<File> midiListView;
+    private ListView<SongInfo> midiListView;
     private Label statusLabel;
+    private Label latencyLabel;
+
+    private enum LibrarySort {
+        NAME("Ad", Comparator.comparing(info -> info.name().toLowerCase())),
+        DURATION("Süre", Comparator.comparingDouble(SongInfo::durationSeconds)),
+        NOTE_COUNT("Nota sayısı", Comparator.comparingInt(SongInfo::noteCount)),
+        DIFFICULTY("Zorluk", Comparator.comparingDouble(SongInfo::difficulty));
+
+        private final String label;
+        private final Comparator<SongInfo> comparator;
+
+        LibrarySort(String label, Comparator<SongInfo> comparator) {
+            this.label = label;
+            this.comparator = comparator;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    private enum DifficultyFilter {
+        ALL("Tüm seviyeler", 0, 10),
+        EASY("Kolay", 0, 3.5),
+        MEDIUM("Orta", 3.5, 6.5),
+        HARD("Zor", 6.5, Double.POSITIVE_INFINITY);
+
+        private final String label;
+        private final double min;
+        private final double max;
+
+        DifficultyFilter(String label, double min, double max) {
+            this.label = label;
+            this.min = min;
+            this.max = max;
+        }
+
+        boolean accepts(SongInfo info) {
+            return this == ALL || (info.difficulty() >= min && info.difficulty() < max);
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    private final ObservableList<SongInfo> libraryItems = FXCollections.observableArrayList();
+    private final Map<Path, SongInfo> libraryByPath = new HashMap<>();
+    private final ConcurrentLinkedQueue<SongInfo> indexedQueue = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Path> removedQueue = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean libraryDrainScheduled = new AtomicBoolean();
+    private final NoteEventQueue microphoneQueue = new NoteEventQueue(256);
+    private final List<MidiInputSource> midiSources = new ArrayList<>();
+    private final List<NoteEventQueue> inputQueues = new ArrayList<>(List.of(microphoneQueue));
+    private MidiLibraryIndexer libraryIndexer;
+
+    private static final Path SESSION_DIR = Paths.get("sessions");
+    private static final int MAX_SESSION_LOGS = 50;
+    private static final DateTimeFormatter FILE_TIMESTAMP = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+    private SessionRecorder sessionRecorder;
+    private SessionReplayer sessionReplayer;
+    private Stage primaryStage;
+
+    private final KeySet targetKeys = new KeySet();
+    private final String[] waitingTexts = new String[129];
+    private long shownLatencyMillis = -1;
+
+    private Label measureLabel;
+    private Label timingLabel;
+    private boolean timingCountsChanged = false;
+    private int shownMeasure = -1;
+    private int loopStartMeasure = -1;
+
+    // Capture times of feedback shown this pulse, recorded once the pulse has laid it out.
+    private final long[] pendingRenderCaptures = new long[32];
+    private int pendingRenderCount = 0;
 
     @Override
     public void start(Stage primaryStage) {
+        this.primaryStage = primaryStage;
         primaryStage.setTitle("Siano Alpha");
 
-        midiListView = new ListView<>();
+        FilteredList<SongInfo> filteredItems = new FilteredList<>(libraryItems);
+        SortedList<SongInfo> sortedItems = new SortedList<>(filteredItems);
+
+        TextField filterField = new TextField();
+        filterField.setPromptText("Ara...");
+        ComboBox<DifficultyFilter> difficultyBox = new ComboBox<>();
+        difficultyBox.getItems().setAll(DifficultyFilter.values());
+        difficultyBox.setValue(DifficultyFilter.ALL);
+        ComboBox<LibrarySort> sortBox = new ComboBox<>();
+        sortBox.getItems().setAll(LibrarySort.values());
+        sortBox.setValue(LibrarySort.NAME);
+
+        Runnable updateFilter = () -> {
+            String text = filterField.getText() == null ? "" : filterField.getText().trim().toLowerCase();
+            DifficultyFilter difficulty = difficultyBox.getValue();
+            filteredItems.setPredicate(info -> info.name().toLowerCase().contains(text) && difficulty.accepts(info));
+        };
+        filterField.textProperty().addListener((obs, old, val) -> updateFilter.run());
+        difficultyBox.valueProperty().addListener((obs, old, val) -> updateFilter.run());
+        sortBox.valueProperty().addListener((obs, old, val) -> sortedItems.setComparator(val.comparator));
+        sortedItems.setComparator(LibrarySort.NAME.comparator);
+
+        midiListView = new ListView<>(sortedItems);
         midiListView.setCellFactory(param -> new ListCell<>() {
             @Override
-            protected void updateItem(File item, boolean empty) {
+            protected void updateItem(SongInfo item, boolean empty) {
                 super.updateItem(item, empty);
-                setText(empty || item == null ? null : item.getName().replace(".mid", ""));
+                setText(empty || item == null ? null : formatSongInfo(item));
             }
         });
         midiListView.getSelectionModel().selectedItemProperty().addListener((obs, old, val) -> {
             if (val != null)
-                loadMidi(val);
+                loadMidi(val.path());
         });
-        loadMidiLibrary();
+        VBox.setVgrow(midiListView, Priority.ALWAYS);
 
-        VBox leftPanel = new VBox(10, new Label("MIDI Kütüphanesi"), midiListView);
+        VBox leftPanel = new VBox(10, new Label("MIDI Kütüphanesi"), filterField, difficultyBox, sortBox, midiListView);
         leftPanel.setPadding(new Insets(10));
         leftPanel.setPrefWidth(250);
 
@@ -68,11 +199,49 @@ public class MainApp extends Application {
         fallingNotesView = new FallingNotesView(1200, viewHeight);
 
         VBox visualContainer = new VBox(fallingNotesView, pianoKeyboard);
-        centerPanel.setCenter(visualContainer);
+        VBox.setVgrow(fallingNotesView, Priority.ALWAYS);
+        MetricsOverlay metricsOverlay = new MetricsOverlay(metrics);
+        SampleTap sampleTap = new SampleTap(16384);
+        pitchDetector.setSampleTap(sampleTap);
+        SpectrogramView spectrogramView = new SpectrogramView(sampleTap, pitchDetector.getSettings().sampleRate(),
+                360, 176);
+        StackPane visualStack = new StackPane(visualContainer, metricsOverlay, spectrogramView);
+        StackPane.setAlignment(metricsOverlay, Pos.TOP_LEFT);
+        StackPane.setAlignment(spectrogramView, Pos.TOP_RIGHT);
+        centerPanel.setCenter(visualStack);
 
         statusLabel = new Label("Başlamak için bir MIDI dosyası seçin.");
         statusLabel.setStyle("-fx-font-size: 16px; -fx-text-fill: white; -fx-padding: 10;");
-        centerPanel.setTop(statusLabel);
+
+        Label speedLabel = new Label("Hız: %100");
+        Slider speedSlider = new Slider(0.25, 1.5, 1.0);
+        speedSlider.valueProperty().addListener((obs, old, val) -> {
+            gameEngine.setPlaybackSpeed(val.doubleValue());
+            speedLabel.setText(String.format("Hız: %%%d", Math.round(val.doubleValue() * 100)));
+        });
+
+        CheckBox chordDetectionBox = new CheckBox("Akor algılama");
+        chordDetectionBox.selectedProperty().addListener((obs, old, val) -> {
+            pitchDetector.setMode(val ? PitchDetector.Mode.POLYPHONIC : PitchDetector.Mode.MONOPHONIC);
+            startMicrophone();
+        });
+
+        CheckBox realtimeBox = new CheckBox("Gerçek zamanlı");
+        realtimeBox.selectedProperty().addListener((obs, old, val) -> {
+            gameEngine.setPlayMode(val ? GameEngine.PlayMode.REALTIME : GameEngine.PlayMode.WAIT);
+            restartSong();
+        });
+
+        Button replayButton = new Button("Oturumu oynat...");
+        replayButton.setOnAction(e -> chooseSessionToReplay());
+
+        latencyLabel = new Label();
+        HBox topBar = new HBox(10, statusLabel, latencyLabel, chordDetectionBox, realtimeBox, speedLabel,
+                speedSlider, replayButton);
+        topBar.setAlignment(Pos.CENTER_LEFT);
+        HBox.setHgrow(statusLabel, Priority.ALWAYS);
+        statusLabel.setMaxWidth(Double.MAX_VALUE);
+        centerPanel.setTop(new VBox(topBar, createSectionBar()));
 
         BorderPane root = new BorderPane();
         root.setLeft(leftPanel);
@@ -80,6 +249,20 @@ public class MainApp extends Application {
 
         Scene scene = new Scene(root, 1500, 800);
         scene.getStylesheets().add(getClass().getResource("/style.css").toExternalForm());
+        scene.addEventHandler(KeyEvent.KEY_PRESSED, e -> {
+            if (e.getCode() == KeyCode.F2) {
+                spectrogramView.toggle();
+                e.consume();
+            } else if (e.getCode() == KeyCode.F3) {
+                metricsOverlay.toggle();
+                e.consume();
+            } else if (e.getCode() == KeyCode.F4) {
+                exportMetrics();
+                e.consume();
+            }
+        });
+        scene.addPreLayoutPulseListener(this::updateTimingCounts);
+        scene.addPostLayoutPulseListener(this::recordRenderedFeedback);
 
         primaryStage.setScene(scene);
         primaryStage.setOnCloseRequest(e -> {
@@ -88,43 +271,192 @@ public class MainApp extends Application {
         });
         primaryStage.show();
 
-        gameEngine.setOnTickUpdate(tick -> fallingNotesView.update(tick));
-        gameEngine.setOnTargetNotesChanged(this::updateTargetKeys);
+        loadMidiLibrary();
+
+        FxPulseClock clock = new FxPulseClock();
+        clock.setFrameTimeHistogram(metrics.getFrameTime());
+        gameEngine.setClock(clock);
+        fallingNotesView.setUpdateCostHistogram(metrics.getNotesViewUpdate());
+        pitchDetector.setPitchLatencyHistogram(metrics.getCaptureToPitch());
+        gameEngine.setOnTickUpdate(tick -> {
+            fallingNotesView.update(tick);
+            updateMeasureLabel();
+        });
+        gameEngine.setOnTargetNotesChanged(new GameEngine.TargetListener() {
+            @Override
+            public void onTargetAdded(int midiKey) {
+                targetKeys.add(midiKey);
+                pianoKeyboard.addStyle(midiKey, "key-target");
+                targetKeysChanged();
+            }
+
+            @Override
+            public void onTargetRemoved(int midiKey) {
+                targetKeys.remove(midiKey);
+                pianoKeyboard.removeStyle(midiKey, "key-target");
+                targetKeysChanged();
+            }
+        });
         gameEngine.setOnGameFinished(() -> Platform.runLater(() -> statusLabel.setText("Parça Tamamlandı!")));
-        gameEngine.setOnNoteFeedback(feedback -> Platform.runLater(() -> handleNoteFeedback(feedback)));
+        gameEngine.setOnNoteFeedback(this::handleNoteFeedback);
+        gameEngine.setOnTiming(this::handleTiming);
+        attachInputQueues();
 
         startMicrophone();
+        startMidiInputs();
+    }
+
+    private HBox createSectionBar() {
+        measureLabel = new Label("Ölçü -");
+        Button startButton = new Button("|◀");
+        startButton.setOnAction(e -> gameEngine.seekToMeasure(0));
+        Button previousButton = new Button("◀");
+        previousButton.setOnAction(e -> gameEngine.seekToMeasure(gameEngine.getCurrentMeasure() - 1));
+        Button nextButton = new Button("▶");
+        nextButton.setOnAction(e -> gameEngine.seekToMeasure(gameEngine.getCurrentMeasure() + 1));
+
+        TextField measureField = new TextField();
+        measureField.setPromptText("Ölçü");
+        measureField.setPrefColumnCount(4);
+        Button goButton = new Button("Git");
+        Runnable goToMeasure = () -> {
+            try {
+                gameEngine.seekToMeasure(Integer.parseInt(measureField.getText().trim()) - 1);
+            } catch (NumberFormatException ex) {
+                statusLabel.setText("Geçersiz ölçü: " + measureField.getText());
+            }
+        };
+        measureField.setOnAction(e -> goToMeasure.run());
+        goButton.setOnAction(e -> goToMeasure.run());
+
+        Button loopStartButton = new Button("A");
+        loopStartButton.setOnAction(e -> {
+            loopStartMeasure = gameEngine.getCurrentMeasure();
+            statusLabel.setText("Döngü başı: ölçü " + (loopStartMeasure + 1));
+        });
+        Button loopEndButton = new Button("B");
+        loopEndButton.setOnAction(e -> setLoopEnd(gameEngine.getCurrentMeasure()));
+        Button clearLoopButton = new Button("Döngüyü kaldır");
+        clearLoopButton.setOnAction(e -> {
+            gameEngine.clearLoop();
+            loopStartMeasure = -1;
+            statusLabel.setText("Döngü kaldırıldı.");
+        });
+
+        timingLabel = new Label();
+        HBox sectionBar = new HBox(6, measureLabel, startButton, previousButton, nextButton, measureField, goButton,
+                loopStartButton, loopEndButton, clearLoopButton, timingLabel);
+        sectionBar.setAlignment(Pos.CENTER_LEFT);
+        sectionBar.setPadding(new Insets(0, 10, 6, 10));
+        return sectionBar;
+    }
+
+    // Loops from the start of the A measure to the end of the given one.
+    private void setLoopEnd(int endMeasure) {
+        if (gameEngine.getSong() == null)
+            return;
+        if (loopStartMeasure < 0 || endMeasure < loopStartMeasure) {
+            statusLabel.setText("Önce döngü başını (A) seçin.");
+            return;
+        }
+        MeterMap meters = gameEngine.getSong().getMeterMap();
+        gameEngine.setLoop(meters.measureStartTick(loopStartMeasure), meters.measureStartTick(endMeasure + 1));
+        statusLabel.setText("Döngü: ölçü " + (loopStartMeasure + 1) + "–" + (endMeasure + 1));
+    }
+
+    private void updateMeasureLabel() {
+        int measure = gameEngine.getCurrentMeasure();
+        if (measure != shownMeasure) {
+            shownMeasure = measure;
+            measureLabel.setText("Ölçü " + (measure + 1));
+        }
     }
 
-    private Set<Integer> currentTargetNotes = new java.util.HashSet<>();
+    private void handleNoteFeedback(int midiKey, boolean isCorrect, long timestampNanos) {
+        if (sessionReplayer == null) {
+            metrics.getCaptureToJudgement().record(System.nanoTime() - timestampNanos);
+            if (pendingRenderCount < pendingRenderCaptures.length)
+                pendingRenderCaptures[pendingRenderCount++] = timestampNanos;
+        }
+        double latency = pitchDetector.getLatencyMillis();
+        if (!Double.isNaN(latency) && Math.round(latency) != shownLatencyMillis) {
+            shownLatencyMillis = Math.round(latency);
+            latencyLabel.setText("Gecikme: " + shownLatencyMillis + " ms");
+        }
 
-    private void handleNoteFeedback(GameEngine.NoteFeedback feedback) {
-        if (feedback.isCorrect()) {
-            pianoKeyboard.animateSuccess(feedback.key(), null);
+        if (isCorrect) {
+            pianoKeyboard.animateSuccess(midiKey);
         } else {
-            String styleClass = (gameEngine.getState() == GameEngine.State.FROZEN) ? "key-incorrect" : "key-free-play";
-            pianoKeyboard.addStyle(feedback.key(), styleClass);
+            String styleClass = gameEngine.isRealtime() || gameEngine.getState() == GameEngine.State.FROZEN
+                    ? "key-incorrect"
+                    : "key-free-play";
+            pianoKeyboard.flash(midiKey, styleClass, 300);
+        }
+    }
 
-            javafx.animation.PauseTransition pause = new javafx.animation.PauseTransition(
-                    javafx.util.Duration.millis(300));
-            pause.setOnFinished(e -> {
-                pianoKeyboard.removeStyle(feedback.key(), styleClass);
-            });
-            pause.play();
+    private void handleTiming(int note, int midiKey, GameEngine.Timing timing, double offsetMillis) {
+        if (timing == GameEngine.Timing.MISS)
+            pianoKeyboard.flash(midiKey, "key-incorrect", 300);
+        timingCountsChanged = true;
+    }
+
+    // Several notes can be judged in one pulse; the label is rebuilt once, after the game has ticked.
+    private void updateTimingCounts() {
+        if (timingCountsChanged) {
+            timingCountsChanged = false;
+            showTimingCounts();
         }
     }
 
-    private void loadMidi(File file) {
+    private void showTimingCounts() {
+        if (!gameEngine.isRealtime()) {
+            timingLabel.setText("");
+            return;
+        }
+        timingLabel.setText("Zamanında " + gameEngine.getTimingCount(GameEngine.Timing.ON_TIME)
+                + " · Erken " + gameEngine.getTimingCount(GameEngine.Timing.EARLY)
+                + " · Geç " + gameEngine.getTimingCount(GameEngine.Timing.LATE)
+                + " · Kaçan " + gameEngine.getTimingCount(GameEngine.Timing.MISS));
+    }
+
+    private void recordRenderedFeedback() {
+        long now = System.nanoTime();
+        for (int i = 0; i < pendingRenderCount; i++)
+            metrics.getCaptureToRender().record(now - pendingRenderCaptures[i]);
+        pendingRenderCount = 0;
+    }
+
+    private void exportMetrics() {
+        Path file = Paths.get("metrics-" + LocalDateTime.now().format(FILE_TIMESTAMP) + ".txt");
+        try {
+            metrics.export(file);
+            statusLabel.setText("Ölçümler kaydedildi: " + file);
+        } catch (IOException e) {
+            statusLabel.setText("Ölçümler kaydedilemedi: " + e.getMessage());
+        }
+    }
+
+    private static String formatSongInfo(SongInfo info) {
+        long seconds = Math.round(info.durationSeconds());
+        return String.format("%s%n%d:%02d · %d nota · zorluk %.1f", info.name(), seconds / 60, seconds % 60,
+                info.noteCount(), info.difficulty());
+    }
+
+    private void loadMidi(Path file) {
         try {
-            List<List<MidiNote>> events = midiReader.readNoteEvents(file.getAbsolutePath());
-            if (events.isEmpty()) {
+            Song song = songCache.load(file);
+            if (song.isEmpty()) {
                 statusLabel.setText("Hata: MIDI dosyasında nota bulunamadı.");
                 return;
             }
 
-            statusLabel.setText("Çalınıyor: " + file.getName());
-            fallingNotesView.setEvents(events);
-            gameEngine.setNoteEvents(events);
+            stopReplay();
+            loopStartMeasure = -1;
+            startSessionRecording(file);
+            statusLabel.setText("Çalınıyor: " + file.getFileName());
+            fallingNotesView.setEvents(song);
+            gameEngine.setNoteEvents(song);
+            showTimingCounts();
             gameEngine.start();
 
         } catch (Exception e) {
@@ -133,63 +465,203 @@ public class MainApp extends Application {
         }
     }
 
-    private void updateTargetKeys(Set<Integer> targetNotes) {
-        for (Integer oldKey : currentTargetNotes) {
-            if (!targetNotes.contains(oldKey)) {
-                pianoKeyboard.removeStyle(oldKey, "key-target");
-            }
+    // Plays the current song again from the start, e.g. after the mode changed.
+    private void restartSong() {
+        Song song = gameEngine.getSong();
+        if (song == null || sessionReplayer != null)
+            return;
+        loopStartMeasure = -1;
+        fallingNotesView.setEvents(song);
+        gameEngine.setNoteEvents(song);
+        showTimingCounts();
+        gameEngine.start();
+    }
+
+    private void startSessionRecording(Path songFile) {
+        closeSessionRecording();
+        String name = LocalDateTime.now().format(FILE_TIMESTAMP) + "-" + songFile.getFileName() + ".slog";
+        try {
+            SessionRecorder.deleteOldLogs(SESSION_DIR, MAX_SESSION_LOGS - 1);
+        } catch (IOException e) {
+            System.err.println("Could not delete old session logs: " + e.getMessage());
         }
+        try {
+            sessionRecorder = new SessionRecorder(SESSION_DIR.resolve(name));
+            gameEngine.setObserver(sessionRecorder);
+        } catch (IOException e) {
+            System.err.println("Could not record session: " + e.getMessage());
+        }
+    }
 
-        for (Integer newKey : targetNotes) {
-            if (!currentTargetNotes.contains(newKey)) {
-                pianoKeyboard.addStyle(newKey, "key-target");
-            }
+    private void closeSessionRecording() {
+        gameEngine.setObserver(null);
+        if (sessionRecorder == null)
+            return;
+        try {
+            sessionRecorder.close();
+        } catch (IOException e) {
+            System.err.println("Could not write session log: " + e.getMessage());
         }
+        sessionRecorder = null;
+    }
 
-        this.currentTargetNotes = new java.util.HashSet<>(targetNotes);
+    private void chooseSessionToReplay() {
+        FileChooser chooser = new FileChooser();
+        chooser.setTitle("Oturum seç");
+        chooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("Oturum kaydı", "*.slog"));
+        if (Files.isDirectory(SESSION_DIR))
+            chooser.setInitialDirectory(SESSION_DIR.toFile());
+        File file = chooser.showOpenDialog(primaryStage);
+        if (file != null)
+            replaySession(file.toPath());
+    }
 
-        if (!targetNotes.isEmpty()) {
-            statusLabel.setText("Bekleniyor: " + targetNotes.size() + " nota...");
+    // Plays a recorded session back through the game engine and views at 1x.
+    // Live input stays detached until the replay ends.
+    private void replaySession(Path file) {
+        stopReplay();
+        gameEngine.stop();
+        closeSessionRecording();
+        try {
+            sessionReplayer = new SessionReplayer(file, gameEngine);
+        } catch (IOException e) {
+            statusLabel.setText("Oturum Hatası: " + e.getMessage());
+            return;
+        }
+        detachInputQueues();
+        sessionReplayer.setOnSongLoaded(fallingNotesView::setEvents);
+        statusLabel.setText("Oturum oynatılıyor: " + file.getFileName());
+        sessionReplayer.play(new FxPulseClock(), () -> {
+            String dropped = sessionReplayer.getDroppedRecordCount() > 0
+                    ? ", kayıtta " + sessionReplayer.getDroppedRecordCount() + " eksik kayıt"
+                    : "";
+            statusLabel.setText("Oturum sonu: " + sessionReplayer.getMismatchCount() + " uyuşmazlık" + dropped);
+            stopReplay();
+        });
+    }
+
+    private void stopReplay() {
+        if (sessionReplayer == null)
+            return;
+        sessionReplayer.stop();
+        sessionReplayer = null;
+        attachInputQueues();
+    }
+
+    private void targetKeysChanged() {
+        pitchDetector.setExpectedKeys(targetKeys);
+        if (gameEngine.isRealtime())
+            return;
+
+        int count = targetKeys.size();
+        if (count > 0) {
+            // Waiting texts are cached so that a steady game does not build strings.
+            if (waitingTexts[count] == null)
+                waitingTexts[count] = "Bekleniyor: " + count + " nota...";
+            statusLabel.setText(waitingTexts[count]);
         } else {
             statusLabel.setText("Çalınıyor...");
         }
     }
 
     private void startMicrophone() {
-        pitchDetector.start(
-                midiKey -> {
-                    Platform.runLater(() -> {
-                        gameEngine.handleInputNote(null, midiKey);
-                    });
-                },
+        pitchDetector.start(microphoneQueue,
                 error -> {
                     Platform.runLater(() -> statusLabel.setText("Mikrofon Hatası: " + error.getMessage()));
                 });
     }
 
+    private void attachInputQueues() {
+        for (NoteEventQueue queue : inputQueues) {
+            // Whatever was played while detached is stale by now.
+            queue.drain((key, velocity, timestamp) -> {
+            });
+            gameEngine.addInputQueue(queue);
+        }
+    }
+
+    private void detachInputQueues() {
+        for (NoteEventQueue queue : inputQueues)
+            gameEngine.removeInputQueue(queue);
+    }
+
+    private void startMidiInputs() {
+        for (MidiInputSource source : MidiInputSource.availableSources()) {
+            NoteEventQueue queue = new NoteEventQueue(256);
+            inputQueues.add(queue);
+            if (sessionReplayer == null)
+                gameEngine.addInputQueue(queue);
+            source.start(queue, error -> Platform.runLater(
+                    () -> statusLabel.setText("MIDI Hatası (" + source.getName() + "): " + error.getMessage())));
+            midiSources.add(source);
+        }
+    }
+
     private void loadMidiLibrary() {
         try {
             Path midiDir = Paths.get("midis");
             if (!Files.exists(midiDir)) {
                 Files.createDirectory(midiDir);
             }
-            try (Stream<Path> paths = Files.walk(midiDir)) {
-                List<File> files = paths
-                        .filter(Files::isRegularFile)
-                        .filter(path -> path.toString().toLowerCase().endsWith(".mid"))
-                        .map(Path::toFile)
-                        .collect(Collectors.toList());
-                midiListView.getItems().setAll(files);
-            }
+            libraryIndexer = new MidiLibraryIndexer(midiDir, songCache, new MidiLibraryIndexer.Listener() {
+                @Override
+                public void onIndexed(SongInfo info) {
+                    indexedQueue.add(info);
+                    scheduleLibraryDrain();
+                }
+
+                @Override
+                public void onRemoved(Path file) {
+                    removedQueue.add(file);
+                    scheduleLibraryDrain();
+                }
+            });
+            libraryIndexer.start();
         } catch (IOException e) {
             statusLabel.setText("Error loading library.");
         }
     }
 
+    private void scheduleLibraryDrain() {
+        if (libraryDrainScheduled.compareAndSet(false, true))
+            Platform.runLater(this::drainLibraryUpdates);
+    }
+
+    private void drainLibraryUpdates() {
+        libraryDrainScheduled.set(false);
+
+        Path removed;
+        while ((removed = removedQueue.poll()) != null) {
+            SongInfo old = libraryByPath.remove(removed);
+            if (old != null)
+                libraryItems.remove(old);
+        }
+
+        List<SongInfo> added = new ArrayList<>();
+        SongInfo info;
+        while ((info = indexedQueue.poll()) != null) {
+            SongInfo old = libraryByPath.put(info.path(), info);
+            if (old == null) {
+                added.add(info);
+            } else {
+                int index = libraryItems.indexOf(old);
+                if (index >= 0)
+                    libraryItems.set(index, info);
+            }
+        }
+        libraryItems.addAll(added);
+    }
+
     @Override
     public void stop() {
+        if (libraryIndexer != null)
+            libraryIndexer.stop();
         gameEngine.stop();
+        stopReplay();
+        closeSessionRecording();
         pitchDetector.stop();
+        for (MidiInputSource source : midiSources)
+            source.stop();
     }
 
     public static void main(String[] args) {
@@ -0,0 +1,87 @@
+package com.siano;
+
+import java.util.function.BooleanSupplier;
+
+/**
+ * Headless clock that advances in fixed steps only when told to, so a game
+ * can be run as fast as the CPU allows and replays exactly: the same step,
+ * song and input always produce the same sequence of updates.
+ */
+public final class SimulatedClock implements GameClock {
+
+    private final long stepNanos;
+    private final double stepSeconds;
+    private long nanos = 0;
+    private Listener listener;
+
+    public SimulatedClock(double stepSeconds) {
+        if (!(stepSeconds > 0))
+            throw new IllegalArgumentException("Step must be positive: " + stepSeconds);
+        this.stepNanos = Math.round(stepSeconds * 1_000_000_000.0);
+        this.stepSeconds = stepNanos / 1_000_000_000.0;
+    }
+
+    public static SimulatedClock atFrameRate(int framesPerSecond) {
+        return new SimulatedClock(1.0 / framesPerSecond);
+    }
+
+    @Override
+    public void start(Listener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public void stop() {
+        listener = null;
+    }
+
+    @Override
+    public long nanoTime() {
+        return nanos;
+    }
+
+    public boolean isRunning() {
+        return listener != null;
+    }
+
+    public double getStepSeconds() {
+        return stepSeconds;
+    }
+
+    /**
+     * Advances by one step and ticks the listener.
+     *
+     * @return false if the clock is not running
+     */
+    public boolean step() {
+        Listener current = listener;
+        if (current == null)
+            return false;
+        nanos += stepNanos;
+        current.onTick(stepSeconds);
+        return true;
+    }
+
+    /**
+     * @return number of steps actually taken
+     */
+    public long advance(long steps) {
+        long taken = 0;
+        while (taken < steps && step())
+            taken++;
+        return taken;
+    }
+
+    /**
+     * Steps as fast as possible until {@code done} holds, the clock is
+     * stopped or {@code maxSteps} have been taken.
+     *
+     * @return number of steps taken
+     */
+    public long runUntil(BooleanSupplier done, long maxSteps) {
+        long taken = 0;
+        while (taken < maxSteps && !done.getAsBoolean() && step())
+            taken++;
+        return taken;
+    }
+}
@@ -0,0 +1,44 @@
+package com.siano.audio;
+
+/**
+ * Capture and analysis parameters for {@link PitchDetector}.
+ *
+ * @param sampleRate       capture rate in Hz
+ * @param bufferSize       analysis window in samples; YIN cannot see periods
+ *                         longer than half of it, so 2048 samples at 44.1 kHz
+ *                         reach down to about F1
+ * @param overlap          samples shared by consecutive windows; the hop
+ *                         between analyses is {@code bufferSize - overlap}
+ * @param lineBufferFrames size of the capture line's own buffer in frames
+ */
+public record AudioSettings(float sampleRate, int bufferSize, int overlap, int lineBufferFrames) {
+
+    public static final AudioSettings DEFAULT = new AudioSettings(44100, 2048, 1536, 512);
+
+    public AudioSettings {
+        if (sampleRate <= 0)
+            throw new IllegalArgumentException("Sample rate must be positive: " + sampleRate);
+        if (bufferSize <= 0)
+            throw new IllegalArgumentException("Buffer size must be positive: " + bufferSize);
+        if (overlap < 0 || overlap >= bufferSize)
+            throw new IllegalArgumentException("Overlap must be in [0, bufferSize): " + overlap);
+        if (lineBufferFrames <= 0)
+            throw new IllegalArgumentException("Line buffer must be positive: " + lineBufferFrames);
+    }
+
+    public int hopSize() {
+        return bufferSize - overlap;
+    }
+
+    /**
+     * Reads {@code siano.audio.sampleRate}, {@code .bufferSize}, {@code .overlap}
+     * and {@code .lineBuffer} system properties, falling back to {@link #DEFAULT}.
+     */
+    public static AudioSettings fromSystemProperties() {
+        return new AudioSettings(
+                Float.parseFloat(System.getProperty("siano.audio.sampleRate", String.valueOf(DEFAULT.sampleRate))),
+                Integer.getInteger("siano.audio.bufferSize", DEFAULT.bufferSize),
+                Integer.getInteger("siano.audio.overlap", DEFAULT.overlap),
+                Integer.getInteger("siano.audio.lineBuffer", DEFAULT.lineBufferFrames));
+    }
+}
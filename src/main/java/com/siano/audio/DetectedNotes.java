@@ -0,0 +1,19 @@
+package com.siano.audio;
+
+/**
+ * Note-ons found in a recording, in time order.
+ *
+ * @param keys    MIDI key of each onset
+ * @param seconds onset time from the start of the recording
+ */
+public record DetectedNotes(int[] keys, double[] seconds) {
+
+    public DetectedNotes {
+        if (keys.length != seconds.length)
+            throw new IllegalArgumentException("keys and seconds differ in length");
+    }
+
+    public int size() {
+        return keys.length;
+    }
+}
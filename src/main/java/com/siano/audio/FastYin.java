@@ -0,0 +1,164 @@
+package com.siano.audio;
+
+import be.tarsos.dsp.AudioEvent;
+import be.tarsos.dsp.AudioProcessor;
+import be.tarsos.dsp.pitch.PitchDetectionHandler;
+import be.tarsos.dsp.pitch.PitchDetectionResult;
+import be.tarsos.dsp.util.fft.FFT;
+
+import java.util.Arrays;
+
+/**
+ * YIN pitch estimator with the same steps and threshold as TarsosDSP's
+ * {@code Yin}, but with the difference function computed through an FFT.
+ * Expanding {@code d(tau) = sum (x[j] - x[j + tau])^2} over the first half
+ * of the buffer gives two energy terms, read from a running sum of squares,
+ * and a cross-correlation of the first half with the whole buffer, which is
+ * one forward transform of each, a product and one inverse transform. A
+ * frame costs O(N log N) instead of O(N^2), and all buffers and the result
+ * are allocated once.
+ */
+public class FastYin implements AudioProcessor {
+
+    private static final double DEFAULT_THRESHOLD = 0.20;
+
+    private final float sampleRate;
+    private final int bufferSize;
+    private final double threshold;
+    private final PitchDetectionHandler handler;
+    private final FFT fft;
+
+    private final float[] signal;
+    private final float[] kernel;
+    private final double[] energy;
+    private final float[] yinBuffer;
+    private final PitchDetectionResult result = new PitchDetectionResult();
+
+    public FastYin(float sampleRate, int bufferSize, PitchDetectionHandler handler) {
+        this(sampleRate, bufferSize, DEFAULT_THRESHOLD, handler);
+    }
+
+    public FastYin(float sampleRate, int bufferSize, double threshold, PitchDetectionHandler handler) {
+        this.sampleRate = sampleRate;
+        this.bufferSize = bufferSize;
+        this.threshold = threshold;
+        this.handler = handler;
+
+        // Lags stay below half the buffer, so a transform as long as the
+        // buffer already keeps the correlation from wrapping around.
+        int fftSize = Integer.highestOneBit(Math.max(2, bufferSize - 1)) << 1;
+        this.fft = new FFT(fftSize);
+        this.signal = new float[fftSize];
+        this.kernel = new float[fftSize];
+        this.energy = new double[bufferSize + 1];
+        this.yinBuffer = new float[bufferSize / 2];
+    }
+
+    @Override
+    public boolean process(AudioEvent audioEvent) {
+        handler.handlePitch(getPitch(audioEvent.getFloatBuffer()), audioEvent);
+        return true;
+    }
+
+    /**
+     * @return the estimate for {@code samples}; the same object is reused
+     *         by the next call
+     */
+    public PitchDetectionResult getPitch(float[] samples) {
+        difference(samples);
+        cumulativeMeanNormalizedDifference();
+        int tau = absoluteThreshold();
+        if (tau < 0) {
+            result.setPitch(-1);
+        } else {
+            result.setPitch(sampleRate / parabolicInterpolation(tau));
+        }
+        return result;
+    }
+
+    private void difference(float[] samples) {
+        int length = Math.min(samples.length, bufferSize);
+        int half = yinBuffer.length;
+
+        double sum = 0;
+        energy[0] = 0;
+        for (int i = 0; i < length; i++) {
+            sum += (double) samples[i] * samples[i];
+            energy[i + 1] = sum;
+        }
+        for (int i = length; i < bufferSize; i++)
+            energy[i + 1] = sum;
+
+        System.arraycopy(samples, 0, signal, 0, length);
+        Arrays.fill(signal, length, signal.length, 0);
+        System.arraycopy(samples, 0, kernel, 0, Math.min(length, half));
+        Arrays.fill(kernel, Math.min(length, half), kernel.length, 0);
+        fft.forwardTransform(signal);
+        fft.forwardTransform(kernel);
+
+        // signal * conj(kernel) in the packed real layout: the first two
+        // slots hold the purely real DC and Nyquist bins.
+        signal[0] *= kernel[0];
+        signal[1] *= kernel[1];
+        for (int i = 2; i < signal.length; i += 2) {
+            float re = signal[i] * kernel[i] + signal[i + 1] * kernel[i + 1];
+            float im = signal[i + 1] * kernel[i] - signal[i] * kernel[i + 1];
+            signal[i] = re;
+            signal[i + 1] = im;
+        }
+        fft.backwardsTransform(signal);
+
+        double head = energy[half];
+        for (int tau = 0; tau < half; tau++) {
+            double d = head + energy[tau + half] - energy[tau] - 2.0 * signal[tau];
+            yinBuffer[tau] = (float) Math.max(0, d);
+        }
+    }
+
+    private void cumulativeMeanNormalizedDifference() {
+        yinBuffer[0] = 1;
+        float runningSum = 0;
+        for (int tau = 1; tau < yinBuffer.length; tau++) {
+            runningSum += yinBuffer[tau];
+            yinBuffer[tau] = runningSum == 0 ? 1 : yinBuffer[tau] * tau / runningSum;
+        }
+    }
+
+    private int absoluteThreshold() {
+        int length = yinBuffer.length;
+        int tau;
+        for (tau = 2; tau < length; tau++) {
+            if (yinBuffer[tau] < threshold) {
+                while (tau + 1 < length && yinBuffer[tau + 1] < yinBuffer[tau])
+                    tau++;
+                break;
+            }
+        }
+        if (tau == length || yinBuffer[tau] >= threshold) {
+            result.setProbability(0);
+            result.setPitched(false);
+            return -1;
+        }
+        result.setProbability(1 - yinBuffer[tau]);
+        result.setPitched(true);
+        return tau;
+    }
+
+    private float parabolicInterpolation(int tau) {
+        int x0 = tau < 1 ? tau : tau - 1;
+        int x2 = tau + 1 < yinBuffer.length ? tau + 1 : tau;
+        if (x0 == tau)
+            return yinBuffer[tau] <= yinBuffer[x2] ? tau : x2;
+        if (x2 == tau)
+            return yinBuffer[tau] <= yinBuffer[x0] ? tau : x0;
+        float s0 = yinBuffer[x0];
+        float s1 = yinBuffer[tau];
+        float s2 = yinBuffer[x2];
+        float denominator = 2 * (2 * s1 - s2 - s0);
+        return denominator == 0 ? tau : tau + (s2 - s0) / denominator;
+    }
+
+    @Override
+    public void processingFinished() {
+    }
+}
@@ -0,0 +1,73 @@
+package com.siano.audio;
+
+import be.tarsos.dsp.AudioEvent;
+import be.tarsos.dsp.AudioProcessor;
+
+import javax.sound.sampled.TargetDataLine;
+
+/**
+ * Wraps the pitch processor and estimates how long a struck note takes to
+ * come out of the analysis. The figure is the sum of
+ * <ul>
+ * <li>audio still queued between the line and the dispatcher when a window
+ * is analysed,</li>
+ * <li>the time spent in the wrapped processor, and</li>
+ * <li>the structural delay of the window itself: on average a note has to
+ * wait half a hop for the next analysis and fill half the window before it
+ * dominates it.</li>
+ * </ul>
+ */
+class LatencyMeter implements AudioProcessor {
+
+    private static final double SMOOTHING = 0.05;
+
+    private final AudioProcessor inner;
+    private final TargetDataLine line;
+    private final AudioSettings settings;
+    private final double structuralMillis;
+
+    private long analysedFrames = 0;
+    private long windowCaptureNanos;
+    private volatile double latencyMillis = Double.NaN;
+
+    LatencyMeter(AudioProcessor inner, TargetDataLine line, AudioSettings settings) {
+        this.inner = inner;
+        this.line = line;
+        this.settings = settings;
+        this.structuralMillis = (settings.bufferSize() / 2.0 + settings.hopSize() / 2.0) * 1000.0
+                / settings.sampleRate();
+    }
+
+    double getLatencyMillis() {
+        return latencyMillis;
+    }
+
+    /**
+     * Estimated {@link System#nanoTime()} at which the newest sample of the
+     * window being analysed was captured. Only valid on the audio thread.
+     */
+    long getWindowCaptureNanos() {
+        return windowCaptureNanos;
+    }
+
+    @Override
+    public boolean process(AudioEvent audioEvent) {
+        long start = System.nanoTime();
+        analysedFrames += analysedFrames == 0 ? settings.bufferSize() : settings.hopSize();
+        long queuedFrames = Math.max(0, line.getLongFramePosition() - analysedFrames);
+        windowCaptureNanos = start - (long) (queuedFrames * 1_000_000_000.0 / settings.sampleRate());
+
+        boolean result = inner.process(audioEvent);
+
+        double processingMillis = (System.nanoTime() - start) / 1_000_000.0;
+        double sample = queuedFrames * 1000.0 / settings.sampleRate() + processingMillis + structuralMillis;
+        double previous = latencyMillis;
+        latencyMillis = Double.isNaN(previous) ? sample : previous + SMOOTHING * (sample - previous);
+        return result;
+    }
+
+    @Override
+    public void processingFinished() {
+        inner.processingFinished();
+    }
+}
@@ -0,0 +1,123 @@
+package com.siano.audio;
+
+import java.util.Arrays;
+
+/**
+ * Turns per-frame pitch observations into note-on events. A key has to be
+ * seen with enough confidence on consecutive frames before it counts as
+ * struck, and has to vanish for a few frames before it can be struck again,
+ * so a sustained note produces one event instead of one per buffer. A clear
+ * jump in a held key's own level counts as a re-strike; the level of the
+ * whole frame would also jump when another key joins a held chord.
+ *
+ * <p>Frames are fed as {@link #beginFrame}, any number of {@link #observe}
+ * calls and {@link #endFrame}, all on the audio thread.
+ */
+public class NoteTracker {
+
+    public interface Listener {
+        /**
+         * @param level RMS level of the frame the onset was found in
+         * @param nanos capture time passed to {@link #beginFrame}
+         */
+        void onNoteOn(int midiKey, double level, long nanos);
+    }
+
+    private static final int KEYS = 128;
+
+    private static final float ON_CONFIDENCE = 0.85f;
+    private static final float INSTANT_ON_CONFIDENCE = 0.95f;
+    private static final float HOLD_CONFIDENCE = 0.6f;
+    private static final int ON_FRAMES = 2;
+    private static final int OFF_FRAMES = 3;
+    private static final double RESTRIKE_LEVEL_RATIO = 1.8;
+    private static final double MIN_LEVEL = 0.005;
+    private static final long REFRACTORY_NANOS = 60_000_000L;
+
+    private final Listener listener;
+
+    private final boolean[] sounding = new boolean[KEYS];
+    private final boolean[] observed = new boolean[KEYS];
+    private final float[] confidence = new float[KEYS];
+    private final int[] presentFrames = new int[KEYS];
+    private final int[] absentFrames = new int[KEYS];
+    private final long[] lastOnsetNanos = new long[KEYS];
+    private final double[] keyLevel = new double[KEYS];
+    private final double[] previousKeyLevel = new double[KEYS];
+
+    private double level;
+    private long frameNanos;
+
+    public NoteTracker(Listener listener) {
+        this.listener = listener;
+        Arrays.fill(lastOnsetNanos, Long.MIN_VALUE / 2);
+    }
+
+    public void beginFrame(double rmsLevel, long nanos) {
+        level = rmsLevel;
+        frameNanos = nanos;
+    }
+
+    /**
+     * @param keyLevel how loud the key itself is, in any unit as long as it
+     *                 stays the same from frame to frame
+     */
+    public void observe(int midiKey, float keyConfidence, double keyLevel) {
+        if (midiKey < 0 || midiKey >= KEYS)
+            return;
+        if (!observed[midiKey]) {
+            observed[midiKey] = true;
+            confidence[midiKey] = keyConfidence;
+            this.keyLevel[midiKey] = keyLevel;
+            return;
+        }
+        confidence[midiKey] = Math.max(confidence[midiKey], keyConfidence);
+        this.keyLevel[midiKey] = Math.max(this.keyLevel[midiKey], keyLevel);
+    }
+
+    public void endFrame() {
+        boolean audible = level > MIN_LEVEL;
+
+        for (int key = 0; key < KEYS; key++) {
+            boolean seen = observed[key] && confidence[key] >= (sounding[key] ? HOLD_CONFIDENCE : ON_CONFIDENCE);
+            observed[key] = false;
+
+            if (!seen) {
+                presentFrames[key] = 0;
+                if (sounding[key] && ++absentFrames[key] >= OFF_FRAMES)
+                    sounding[key] = false;
+                continue;
+            }
+
+            absentFrames[key] = 0;
+            presentFrames[key]++;
+            boolean refractory = frameNanos - lastOnsetNanos[key] < REFRACTORY_NANOS;
+            boolean levelJump = audible && keyLevel[key] > previousKeyLevel[key] * RESTRIKE_LEVEL_RATIO;
+            previousKeyLevel[key] = keyLevel[key];
+            if (!sounding[key]) {
+                if (!refractory && (presentFrames[key] >= ON_FRAMES || confidence[key] >= INSTANT_ON_CONFIDENCE)) {
+                    sounding[key] = true;
+                    emit(key);
+                }
+            } else if (levelJump && !refractory) {
+                emit(key);
+            }
+        }
+    }
+
+    public void reset() {
+        for (int key = 0; key < KEYS; key++) {
+            sounding[key] = false;
+            observed[key] = false;
+            presentFrames[key] = 0;
+            absentFrames[key] = 0;
+            previousKeyLevel[key] = 0;
+        }
+        level = 0;
+    }
+
+    private void emit(int key) {
+        lastOnsetNanos[key] = frameNanos;
+        listener.onNoteOn(key, level, frameNanos);
+    }
+}
@@ -0,0 +1,166 @@
+package com.siano.audio;
+
+import be.tarsos.dsp.AudioEvent;
+import be.tarsos.dsp.AudioProcessor;
+import be.tarsos.dsp.io.TarsosDSPAudioFormat;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.LongSupplier;
+
+/**
+ * Runs the {@link PitchDetector} analysis over recorded audio instead of a
+ * capture line. The recording is cut into chunks that are analysed in
+ * parallel, each with its own detector and tracker. A chunk starts analysing
+ * a little before its own range so the tracker knows which notes are already
+ * held, and a little after it so late onsets get the frames they need;
+ * onsets are kept only by the chunk whose range they fall in. Frames are
+ * taken on one hop grid across the whole file, so the split does not move
+ * any analysis window.
+ */
+public class OfflineAnalyzer {
+
+    private static final double CHUNK_SECONDS = 20;
+    private static final double WARM_UP_SECONDS = 1.0;
+    private static final double TAIL_SECONDS = 0.25;
+
+    private final PitchDetector.Mode mode;
+    private final AudioSettings settings;
+    private final ForkJoinPool workers;
+
+    public OfflineAnalyzer(PitchDetector.Mode mode, AudioSettings settings, ForkJoinPool workers) {
+        this.mode = mode;
+        this.settings = settings;
+        this.workers = workers;
+    }
+
+    /**
+     * Decodes an audio file (anything {@link AudioSystem} reads, e.g. WAV)
+     * and analyses it at its own sample rate, mixed down to mono.
+     */
+    public DetectedNotes analyze(Path file) throws IOException, UnsupportedAudioFileException {
+        try (AudioInputStream source = AudioSystem.getAudioInputStream(file.toFile())) {
+            AudioFormat format = source.getFormat();
+            int channels = format.getChannels();
+            AudioFormat pcm = new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, format.getSampleRate(), 16, channels,
+                    channels * 2, format.getSampleRate(), false);
+            byte[] bytes;
+            try (AudioInputStream in = AudioSystem.getAudioInputStream(pcm, source)) {
+                bytes = in.readAllBytes();
+            }
+            int frames = bytes.length / (channels * 2);
+            float[] samples = new float[frames];
+            for (int frame = 0, offset = 0; frame < frames; frame++) {
+                int sum = 0;
+                for (int channel = 0; channel < channels; channel++, offset += 2)
+                    sum += (short) ((bytes[offset] & 0xFF) | (bytes[offset + 1] << 8));
+                samples[frame] = sum / (32768f * channels);
+            }
+            return analyze(samples, format.getSampleRate());
+        }
+    }
+
+    /**
+     * @param samples mono samples in [-1, 1]
+     */
+    public DetectedNotes analyze(float[] samples, float sampleRate) {
+        AudioSettings fileSettings = new AudioSettings(sampleRate, settings.bufferSize(), settings.overlap(),
+                settings.lineBufferFrames());
+        int chunkSamples = (int) (CHUNK_SECONDS * sampleRate);
+        int chunkCount = Math.max(1, (samples.length + chunkSamples - 1) / chunkSamples);
+
+        List<ForkJoinTask<DetectedNotes>> chunks = new ArrayList<>(chunkCount);
+        for (int i = 0; i < chunkCount; i++) {
+            int from = i * chunkSamples;
+            int to = Math.min(samples.length, from + chunkSamples);
+            chunks.add(workers.submit(() -> analyzeChunk(samples, fileSettings, from, to)));
+        }
+
+        int total = 0;
+        DetectedNotes[] results = new DetectedNotes[chunkCount];
+        for (int i = 0; i < chunkCount; i++) {
+            results[i] = chunks.get(i).join();
+            total += results[i].size();
+        }
+        int[] keys = new int[total];
+        double[] seconds = new double[total];
+        int count = 0;
+        for (DetectedNotes result : results) {
+            System.arraycopy(result.keys(), 0, keys, count, result.size());
+            System.arraycopy(result.seconds(), 0, seconds, count, result.size());
+            count += result.size();
+        }
+        return new DetectedNotes(keys, seconds);
+    }
+
+    private DetectedNotes analyzeChunk(float[] samples, AudioSettings settings, int from, int to) {
+        float sampleRate = settings.sampleRate();
+        int bufferSize = settings.bufferSize();
+        int hop = settings.hopSize();
+        int start = Math.max(0, from - (int) (WARM_UP_SECONDS * sampleRate));
+        start -= start % hop;
+        int end = Math.min(samples.length, to + (int) (TAIL_SECONDS * sampleRate));
+
+        ChunkResult result = new ChunkResult(from / sampleRate, to / sampleRate);
+        NoteTracker tracker = new NoteTracker(result);
+        AudioProcessor analysis = PitchDetector.createAnalysis(mode, PitchDetector.Estimator.FAST_YIN, settings,
+                tracker, result);
+        AudioEvent event = new AudioEvent(new TarsosDSPAudioFormat(sampleRate, 16, 1, true, false));
+        float[] window = new float[bufferSize];
+        for (int position = start; position + bufferSize <= end; position += hop) {
+            System.arraycopy(samples, position, window, 0, bufferSize);
+            event.setFloatBuffer(window);
+            // An onset is dated at the middle of the window it was found in.
+            result.frameNanos = (long) ((position + bufferSize / 2.0) * 1_000_000_000.0 / sampleRate);
+            analysis.process(event);
+        }
+        return result.toDetectedNotes();
+    }
+
+    // Collects a chunk's onsets and supplies the time of the frame being analysed.
+    private static final class ChunkResult implements NoteTracker.Listener, LongSupplier {
+        private final double fromSeconds;
+        private final double toSeconds;
+        private long frameNanos;
+        private int[] keys = new int[64];
+        private double[] seconds = new double[64];
+        private int count = 0;
+
+        ChunkResult(double fromSeconds, double toSeconds) {
+            this.fromSeconds = fromSeconds;
+            this.toSeconds = toSeconds;
+        }
+
+        @Override
+        public long getAsLong() {
+            return frameNanos;
+        }
+
+        @Override
+        public void onNoteOn(int midiKey, double level, long nanos) {
+            double time = nanos / 1_000_000_000.0;
+            if (time < fromSeconds || time >= toSeconds)
+                return;
+            if (count == keys.length) {
+                keys = Arrays.copyOf(keys, count * 2);
+                seconds = Arrays.copyOf(seconds, count * 2);
+            }
+            keys[count] = midiKey;
+            seconds[count] = time;
+            count++;
+        }
+
+        DetectedNotes toDetectedNotes() {
+            return new DetectedNotes(Arrays.copyOf(keys, count), Arrays.copyOf(seconds, count));
+        }
+    }
+}
@@ -1,28 +1,139 @@
 package com.siano.audio;
 
 import be.tarsos.dsp.AudioDispatcher;
+import be.tarsos.dsp.AudioProcessor;
 import be.tarsos.dsp.io.jvm.JVMAudioInputStream;
 import be.tarsos.dsp.pitch.PitchDetectionHandler;
 import be.tarsos.dsp.pitch.PitchProcessor;
 import be.tarsos.dsp.pitch.PitchProcessor.PitchEstimationAlgorithm;
+import com.siano.input.NoteEventQueue;
+import com.siano.input.NoteInputSource;
+import com.siano.metrics.LatencyHistogram;
+import com.siano.utils.KeySet;
 
 import javax.sound.sampled.*;
 import java.util.function.Consumer;
+import java.util.function.LongSupplier;
 
-public class PitchDetector {
+public class PitchDetector implements NoteInputSource {
 
+    public enum Mode {
+        MONOPHONIC,
+        POLYPHONIC
+    }
+
+    /**
+     * YIN implementation used in monophonic mode.
+     */
+    public enum Estimator {
+        TARSOS_YIN,
+        FAST_YIN
+    }
+
+    private volatile Mode mode = Mode.MONOPHONIC;
+    private volatile Estimator estimator = Estimator.FAST_YIN;
+    private volatile AudioSettings settings = AudioSettings.fromSystemProperties();
+    private volatile LatencyMeter latencyMeter;
+    private volatile LatencyHistogram pitchLatency;
+    private volatile SampleTap sampleTap;
+    private volatile long expectedLow;
+    private volatile long expectedHigh;
+    private PolyphonicPitchProcessor polyphonicProcessor;
     private AudioDispatcher dispatcher;
     private Thread audioThread;
     private static final String[] NOTE_NAMES = { "Do", "Do#", "Re", "Re#", "Mi", "Fa", "Fa#", "Sol", "Sol#", "La",
             "La#", "Si" };
 
-    public void start(Consumer<Integer> onNoteDetected, Consumer<Exception> onError) {
+    @Override
+    public String getName() {
+        return "Mikrofon";
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Takes effect on the next {@link #start}.
+     */
+    public void setMode(Mode mode) {
+        this.mode = mode;
+    }
+
+    public Estimator getEstimator() {
+        return estimator;
+    }
+
+    /**
+     * Takes effect on the next {@link #start}.
+     */
+    public void setEstimator(Estimator estimator) {
+        this.estimator = estimator;
+    }
+
+    public AudioSettings getSettings() {
+        return settings;
+    }
+
+    /**
+     * Takes effect on the next {@link #start}.
+     */
+    public void setSettings(AudioSettings settings) {
+        this.settings = settings;
+    }
+
+    /**
+     * @return smoothed input-to-detection latency in milliseconds, or NaN
+     *         before the first analysis
+     */
+    public double getLatencyMillis() {
+        LatencyMeter meter = latencyMeter;
+        return meter == null ? Double.NaN : meter.getLatencyMillis();
+    }
+
+    /**
+     * Records, on the audio thread, the time from capture to each detected
+     * note-on; may be null.
+     */
+    public void setPitchLatencyHistogram(LatencyHistogram pitchLatency) {
+        this.pitchLatency = pitchLatency;
+    }
+
+    /**
+     * Receives every analysed buffer and detected key, e.g. for a live
+     * display; may be null. Takes effect on the next {@link #start}.
+     */
+    public void setSampleTap(SampleTap sampleTap) {
+        this.sampleTap = sampleTap;
+    }
+
+    /**
+     * Keys the player is expected to press next; the polyphonic detector
+     * accepts these at a lower threshold.
+     */
+    public void setExpectedKeys(KeySet keys) {
+        long low = keys.low();
+        long high = keys.high();
+        expectedLow = low;
+        expectedHigh = high;
+        PolyphonicPitchProcessor processor = polyphonicProcessor;
+        if (processor != null)
+            processor.setHintKeys(low, high);
+    }
+
+    /**
+     * Starts capturing; every detected note-on is offered to {@code output}
+     * from the audio thread, stamped with its estimated capture time.
+     */
+    @Override
+    public void start(NoteEventQueue output, Consumer<Exception> onError) {
         if (dispatcher != null) {
             stop();
         }
 
+        AudioSettings settings = this.settings;
         try {
-            AudioFormat format = new AudioFormat(44100, 16, 1, true, false);
+            AudioFormat format = new AudioFormat(settings.sampleRate(), 16, 1, true, false);
             DataLine.Info info = new DataLine.Info(TargetDataLine.class, format);
 
             if (!AudioSystem.isLineSupported(info)) {
@@ -30,24 +141,32 @@ public class PitchDetector {
             }
 
             TargetDataLine line = (TargetDataLine) AudioSystem.getLine(info);
-            line.open(format);
+            line.open(format, settings.lineBufferFrames() * format.getFrameSize());
             line.start();
             AudioInputStream stream = new AudioInputStream(line);
 
             JVMAudioInputStream audioStream = new JVMAudioInputStream(stream);
-            dispatcher = new AudioDispatcher(audioStream, 2048, 0);
-
-            PitchDetectionHandler pdh = (result, e) -> {
-                float pitchInHz = result.getPitch();
-                if (pitchInHz != -1) {
-                    int midiKey = frequencyToMidi(pitchInHz);
-                    if (midiKey > 0) {
-                        onNoteDetected.accept(midiKey);
-                    }
-                }
-            };
+            dispatcher = new AudioDispatcher(audioStream, settings.bufferSize(), settings.overlap());
 
-            dispatcher.addAudioProcessor(new PitchProcessor(PitchEstimationAlgorithm.YIN, 44100, 2048, pdh));
+            SampleTap tap = sampleTap;
+            NoteTracker tracker = new NoteTracker((midiKey, level, nanos) -> {
+                LatencyHistogram histogram = pitchLatency;
+                if (histogram != null)
+                    histogram.record(System.nanoTime() - nanos);
+                output.offer(midiKey, levelToVelocity(level), nanos);
+                if (tap != null)
+                    tap.noteDetected(midiKey);
+            });
+
+            AudioProcessor pitchProcessor = createAnalysis(mode, estimator, settings, tracker, this::captureNanos);
+            if (pitchProcessor instanceof PolyphonicPitchProcessor processor) {
+                processor.setHintKeys(expectedLow, expectedHigh);
+                polyphonicProcessor = processor;
+            }
+            latencyMeter = new LatencyMeter(pitchProcessor, line, settings);
+            dispatcher.addAudioProcessor(latencyMeter);
+            if (tap != null)
+                dispatcher.addAudioProcessor(tap);
 
             audioThread = new Thread(dispatcher, "Audio Dispatcher");
             audioThread.start();
@@ -57,6 +176,7 @@ public class PitchDetector {
         }
     }
 
+    @Override
     public void stop() {
         if (dispatcher != null && !dispatcher.isStopped()) {
             dispatcher.stop();
@@ -70,9 +190,52 @@ public class PitchDetector {
         }
         dispatcher = null;
         audioThread = null;
+        polyphonicProcessor = null;
+        latencyMeter = null;
+    }
+
+    /**
+     * Builds the analysis for one audio stream: the detector for
+     * {@code mode} (and {@code estimator} when monophonic), feeding every
+     * frame into {@code tracker} stamped with {@code frameNanos}. Needs no
+     * capture line, so it serves files as well.
+     */
+    static AudioProcessor createAnalysis(Mode mode, Estimator estimator, AudioSettings settings,
+            NoteTracker tracker, LongSupplier frameNanos) {
+        if (mode == Mode.POLYPHONIC) {
+            return new PolyphonicPitchProcessor(settings.sampleRate(), settings.bufferSize(), (keys, levels, count, e) -> {
+                tracker.beginFrame(e.getRMS(), frameNanos.getAsLong());
+                for (int i = 0; i < count; i++)
+                    tracker.observe(keys[i], 1.0f, levels[i]);
+                tracker.endFrame();
+            });
+        }
+        PitchDetectionHandler pdh = (result, e) -> {
+            tracker.beginFrame(e.getRMS(), frameNanos.getAsLong());
+            float pitchInHz = result.getPitch();
+            if (pitchInHz != -1 && result.isPitched()) {
+                int midiKey = frequencyToMidi(pitchInHz);
+                if (midiKey > 0) {
+                    tracker.observe(midiKey, result.getProbability(), e.getRMS());
+                }
+            }
+            tracker.endFrame();
+        };
+        if (estimator == Estimator.FAST_YIN)
+            return new FastYin(settings.sampleRate(), settings.bufferSize(), pdh);
+        return new PitchProcessor(PitchEstimationAlgorithm.YIN, settings.sampleRate(), settings.bufferSize(), pdh);
+    }
+
+    private long captureNanos() {
+        LatencyMeter meter = latencyMeter;
+        return meter != null ? meter.getWindowCaptureNanos() : System.nanoTime();
+    }
+
+    private static int levelToVelocity(double rms) {
+        return (int) Math.max(1, Math.min(127, Math.round(rms * 127 * 4)));
     }
 
-    private int frequencyToMidi(float frequency) {
+    private static int frequencyToMidi(float frequency) {
         if (frequency <= 0) {
             return -1;
         }
@@ -0,0 +1,228 @@
+package com.siano.audio;
+
+import be.tarsos.dsp.AudioEvent;
+import be.tarsos.dsp.AudioProcessor;
+import be.tarsos.dsp.util.fft.FFT;
+
+/**
+ * Multi-pitch estimator for piano keys based on a harmonic sum over spectral
+ * peaks: every key is scored by the weighted amplitude of the peaks found
+ * near its first harmonics, the strongest key is taken and its peaks are
+ * attenuated, and this repeats until no key stands out. All buffers are
+ * allocated up front, so a frame costs one FFT plus a peak scan.
+ */
+public class PolyphonicPitchProcessor implements AudioProcessor {
+
+    public interface Handler {
+        /**
+         * @param keys   detected MIDI keys; the array is reused for the next frame
+         * @param levels spectral amplitude at each key's fundamental, in the
+         *               same order; also reused
+         * @param count  number of valid entries in {@code keys}
+         */
+        void handlePitches(int[] keys, float[] levels, int count, AudioEvent audioEvent);
+    }
+
+    private static final int LOWEST_KEY = 21;
+    private static final int HIGHEST_KEY = 108;
+    private static final int KEY_COUNT = HIGHEST_KEY - LOWEST_KEY + 1;
+    private static final int HARMONICS = 8;
+    private static final double HARMONIC_DECAY = 0.8;
+
+    private static final int MAX_POLYPHONY = 6;
+    private static final double SILENCE_RMS = 0.01;
+    private static final double RELATIVE_THRESHOLD = 0.3;
+    private static final double NOISE_FACTOR = 6.0;
+    private static final double HINT_THRESHOLD_FACTOR = 0.6;
+    private static final double MIN_FUNDAMENTAL_SHARE = 0.1;
+    private static final float SHARED_HARMONIC_SUPPRESSION = 0.3f;
+    private static final double TOLERANCE_SEMITONES = 1.0 / 3;
+    private static final int MAX_PEAKS = 256;
+
+    private final int bufferSize;
+    private final Handler handler;
+    private final FFT fft;
+
+    private final float[] window;
+    private final float[] transform;
+    private final float[] magnitudes;
+    private final float[] harmonicBins = new float[KEY_COUNT * HARMONICS];
+    private final float[] harmonicWeights = new float[HARMONICS];
+    private final float[] peakBins = new float[MAX_PEAKS];
+    private final float[] peakAmplitudes = new float[MAX_PEAKS];
+    private final int[] matchedPeaks = new int[HARMONICS];
+    private final int[] detectedKeys = new int[MAX_POLYPHONY];
+    private final float[] detectedLevels = new float[MAX_POLYPHONY];
+    private final double toleranceRatio = Math.pow(2, TOLERANCE_SEMITONES / 12) - 1;
+    private int peakCount;
+
+    private volatile long hintLow;
+    private volatile long hintHigh;
+
+    public PolyphonicPitchProcessor(float sampleRate, int bufferSize, Handler handler) {
+        this.bufferSize = bufferSize;
+        this.handler = handler;
+
+        // Zero-padding to twice the buffer length sharpens peak positions for the low keys.
+        int fftSize = Integer.highestOneBit(bufferSize * 2 - 1) << 1;
+        this.fft = new FFT(fftSize);
+        this.transform = new float[fftSize];
+        this.magnitudes = new float[fftSize / 2];
+
+        this.window = new float[bufferSize];
+        for (int i = 0; i < bufferSize; i++)
+            window[i] = (float) (0.5 - 0.5 * Math.cos(2 * Math.PI * i / (bufferSize - 1)));
+
+        for (int h = 0; h < HARMONICS; h++)
+            harmonicWeights[h] = (float) Math.pow(HARMONIC_DECAY, h);
+
+        for (int k = 0; k < KEY_COUNT; k++) {
+            double f0 = 440.0 * Math.pow(2, (LOWEST_KEY + k - 69) / 12.0);
+            for (int h = 0; h < HARMONICS; h++) {
+                double bin = f0 * (h + 1) * fftSize / sampleRate;
+                harmonicBins[k * HARMONICS + h] = bin + 1 < magnitudes.length ? (float) bin : -1;
+            }
+        }
+    }
+
+    /**
+     * Keys that are expected right now get a lower detection threshold. Safe
+     * to call from any thread.
+     */
+    public void setHintKeys(long low, long high) {
+        hintLow = low;
+        hintHigh = high;
+    }
+
+    @Override
+    public boolean process(AudioEvent audioEvent) {
+        float[] samples = audioEvent.getFloatBuffer();
+        int count = 0;
+        if (AudioEvent.calculateRMS(samples) >= SILENCE_RMS)
+            count = detect(samples);
+        handler.handlePitches(detectedKeys, detectedLevels, count, audioEvent);
+        return true;
+    }
+
+    private int detect(float[] samples) {
+        int length = Math.min(samples.length, bufferSize);
+        for (int i = 0; i < length; i++)
+            transform[i] = samples[i] * window[i];
+        for (int i = length; i < transform.length; i++)
+            transform[i] = 0;
+        fft.forwardTransform(transform);
+        fft.modulus(transform, magnitudes);
+
+        double mean = 0;
+        for (float magnitude : magnitudes)
+            mean += magnitude;
+        mean /= magnitudes.length;
+        double noiseFloor = mean * NOISE_FACTOR;
+        findPeaks(mean);
+
+        long low = hintLow;
+        long high = hintHigh;
+        double firstSalience = 0;
+        int count = 0;
+        for (int iteration = 0; iteration < MAX_POLYPHONY * 2 && count < MAX_POLYPHONY; iteration++) {
+            int bestKey = -1;
+            double bestSalience = 0;
+            for (int k = 0; k < KEY_COUNT; k++) {
+                double salience = salience(k);
+                if (isHinted(LOWEST_KEY + k, low, high))
+                    salience /= HINT_THRESHOLD_FACTOR;
+                if (salience > bestSalience) {
+                    bestSalience = salience;
+                    bestKey = k;
+                }
+            }
+            if (bestKey < 0 || bestSalience < noiseFloor)
+                break;
+            if (count == 0)
+                firstSalience = bestSalience;
+            else if (bestSalience < firstSalience * RELATIVE_THRESHOLD)
+                break;
+
+            salience(bestKey);
+            float fundamental = matchedPeaks[0] >= 0 ? peakAmplitudes[matchedPeaks[0]] : 0;
+            suppressMatchedPeaks();
+            // A sub-octave ghost collects its score from a real note's
+            // harmonics but has next to nothing at its own fundamental.
+            if (fundamental >= bestSalience * MIN_FUNDAMENTAL_SHARE) {
+                detectedKeys[count] = LOWEST_KEY + bestKey;
+                // Taken from the spectrum, as the peak may already be attenuated by a key found earlier.
+                detectedLevels[count] = magnitudes[Math.round(peakBins[matchedPeaks[0]])];
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private void findPeaks(double threshold) {
+        peakCount = 0;
+        for (int i = 2; i < magnitudes.length - 1 && peakCount < MAX_PEAKS; i++) {
+            float a = magnitudes[i - 1];
+            float b = magnitudes[i];
+            float c = magnitudes[i + 1];
+            if (b <= threshold || b <= a || b < c)
+                continue;
+            float denominator = a - 2 * b + c;
+            float offset = denominator != 0 ? 0.5f * (a - c) / denominator : 0;
+            peakBins[peakCount] = i + offset;
+            peakAmplitudes[peakCount] = b;
+            peakCount++;
+        }
+    }
+
+    // Scores key k and leaves the peak matched for each harmonic (or -1) in matchedPeaks.
+    private double salience(int k) {
+        double sum = 0;
+        int base = k * HARMONICS;
+        for (int h = 0; h < HARMONICS; h++) {
+            float bin = harmonicBins[base + h];
+            int peak = bin < 0 ? -1 : nearestPeak(bin, bin * toleranceRatio);
+            matchedPeaks[h] = peak;
+            if (peak >= 0)
+                sum += harmonicWeights[h] * peakAmplitudes[peak];
+        }
+        return sum;
+    }
+
+    private int nearestPeak(float bin, double tolerance) {
+        int lo = 0;
+        int hi = peakCount;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (peakBins[mid] < bin)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        int best = -1;
+        double bestDistance = tolerance;
+        for (int i = Math.max(0, lo - 1); i <= Math.min(peakCount - 1, lo); i++) {
+            double distance = Math.abs(peakBins[i] - bin);
+            if (distance <= bestDistance && peakAmplitudes[i] > 0) {
+                bestDistance = distance;
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    private void suppressMatchedPeaks() {
+        for (int h = 0; h < HARMONICS; h++) {
+            int peak = matchedPeaks[h];
+            if (peak >= 0)
+                peakAmplitudes[peak] *= h == 0 ? 0 : SHARED_HARMONIC_SUPPRESSION;
+        }
+    }
+
+    private static boolean isHinted(int key, long low, long high) {
+        return key < 64 ? (low & (1L << key)) != 0 : (high & (1L << (key - 64))) != 0;
+    }
+
+    @Override
+    public void processingFinished() {
+    }
+}
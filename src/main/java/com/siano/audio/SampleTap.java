@@ -0,0 +1,97 @@
+package com.siano.audio;
+
+import be.tarsos.dsp.AudioEvent;
+import be.tarsos.dsp.AudioProcessor;
+
+/**
+ * Hands the samples the pitch detector analyses, and the last key it
+ * detected, to a viewer on another thread. The audio thread only copies each
+ * hop's new samples into a ring and publishes the write position; it never
+ * waits. The reader keeps to the newest half of the ring, since the other
+ * half may be under a write that is not published yet, and skips ahead when
+ * it falls further behind. While disabled the tap copies nothing.
+ */
+public class SampleTap implements AudioProcessor {
+
+    private final float[] ring;
+    private final int mask;
+    private volatile long written = 0;
+    private volatile boolean enabled = false;
+    private volatile int detectedKey = -1;
+    private boolean firstBuffer = true;
+
+    private long read = 0;
+
+    /**
+     * @param capacity samples kept for the reader; the ring is twice that,
+     *                 rounded up to a power of two, and no buffer may be
+     *                 longer than it
+     */
+    public SampleTap(int capacity) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 2;
+        ring = new float[size];
+        mask = size - 1;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * @return MIDI key of the last note-on, or -1 before the first
+     */
+    public int getDetectedKey() {
+        return detectedKey;
+    }
+
+    void noteDetected(int midiKey) {
+        detectedKey = midiKey;
+    }
+
+    @Override
+    public boolean process(AudioEvent audioEvent) {
+        float[] buffer = audioEvent.getFloatBuffer();
+        // Consecutive buffers overlap; only the tail of each one is new.
+        int fresh = firstBuffer ? buffer.length : buffer.length - audioEvent.getOverlap();
+        firstBuffer = false;
+        if (!enabled)
+            return true;
+        long position = written;
+        for (int i = buffer.length - fresh; i < buffer.length; i++)
+            ring[(int) (position++ & mask)] = buffer[i];
+        written = position;
+        return true;
+    }
+
+    @Override
+    public void processingFinished() {
+        firstBuffer = true;
+    }
+
+    /**
+     * Copies samples the reader has not seen yet into {@code target}, oldest
+     * first. Reader thread only.
+     *
+     * @return number of samples copied
+     */
+    public int read(float[] target) {
+        int usable = ring.length / 2;
+        long end = written;
+        if (end - read > usable)
+            read = end - usable;
+        int count = (int) Math.min(target.length, end - read);
+        for (int i = 0; i < count; i++)
+            target[i] = ring[(int) ((read + i) & mask)];
+        // The writer may have reached part of what was just copied; drop that part.
+        long lapped = written + usable - ring.length - read;
+        int skip = (int) Math.max(0, Math.min(count, lapped));
+        if (skip > 0)
+            System.arraycopy(target, skip, target, 0, count - skip);
+        read += count;
+        return count - skip;
+    }
+}
@@ -0,0 +1,117 @@
+package com.siano.grading;
+
+import com.siano.audio.AudioSettings;
+import com.siano.audio.DetectedNotes;
+import com.siano.audio.OfflineAnalyzer;
+import com.siano.audio.PitchDetector;
+import com.siano.utils.MidiReader;
+import com.siano.utils.Song;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Grades a folder of recordings without a sound card. Each recording is
+ * graded against the MIDI file whose name is the longest prefix of its own
+ * (so {@code fur-elise-ayse.wav} goes with {@code fur-elise.mid}), and a
+ * per-note CSV report is written next to it.
+ */
+public class BatchGrader {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: BatchGrader <recordings dir> <midi dir> [--chords] [--speed <factor>]");
+            return;
+        }
+        Path recordings = Paths.get(args[0]);
+        Path midiDir = Paths.get(args[1]);
+        PitchDetector.Mode mode = PitchDetector.Mode.MONOPHONIC;
+        double speed = 1.0;
+        for (int i = 2; i < args.length; i++) {
+            if (args[i].equals("--chords"))
+                mode = PitchDetector.Mode.POLYPHONIC;
+            else if (args[i].equals("--speed") && i + 1 < args.length)
+                speed = Double.parseDouble(args[++i]);
+        }
+
+        List<Path> midis;
+        try (Stream<Path> files = Files.list(midiDir)) {
+            midis = files.filter(p -> hasExtension(p, ".mid", ".midi")).collect(Collectors.toList());
+        }
+        List<Path> wavs;
+        try (Stream<Path> files = Files.list(recordings)) {
+            wavs = files.filter(p -> hasExtension(p, ".wav")).sorted().collect(Collectors.toList());
+        }
+
+        ForkJoinPool workers = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        OfflineAnalyzer analyzer = new OfflineAnalyzer(mode, AudioSettings.fromSystemProperties(), workers);
+        PerformanceGrader grader = new PerformanceGrader(speed);
+        MidiReader reader = new MidiReader();
+        try {
+            for (Path wav : wavs) {
+                Path midi = matchSong(wav, midis);
+                if (midi == null) {
+                    System.err.println(wav.getFileName() + ": no matching MIDI file");
+                    continue;
+                }
+                try {
+                    Song song = reader.readNoteEvents(midi);
+                    long start = System.nanoTime();
+                    DetectedNotes played = analyzer.analyze(wav);
+                    double analysisSeconds = (System.nanoTime() - start) / 1_000_000_000.0;
+                    GradeReport report = grader.grade(song, played);
+                    Path csv = wav.resolveSibling(baseName(wav) + ".csv");
+                    report.export(csv);
+                    System.out.printf(Locale.ROOT, "%s vs %s: %s (analysed at %.0fx real time)%n",
+                            wav.getFileName(), midi.getFileName(), report.summary(),
+                            durationSeconds(wav) / analysisSeconds);
+                } catch (Exception e) {
+                    System.err.println(wav.getFileName() + ": " + e.getMessage());
+                }
+            }
+        } finally {
+            workers.shutdown();
+        }
+    }
+
+    private static Path matchSong(Path recording, List<Path> midis) {
+        String name = baseName(recording);
+        Path best = null;
+        for (Path midi : midis) {
+            String songName = baseName(midi);
+            if (name.startsWith(songName) && (best == null || songName.length() > baseName(best).length()))
+                best = midi;
+        }
+        return best;
+    }
+
+    private static double durationSeconds(Path wav) throws IOException, UnsupportedAudioFileException {
+        AudioFileFormat format = AudioSystem.getAudioFileFormat(wav.toFile());
+        return format.getFrameLength() / (double) format.getFormat().getFrameRate();
+    }
+
+    private static String baseName(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+
+    private static boolean hasExtension(Path file, String... extensions) {
+        String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+        for (String extension : extensions) {
+            if (name.endsWith(extension))
+                return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,62 @@
+package com.siano.grading;
+
+import com.siano.GameEngine.Timing;
+import com.siano.utils.Song;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+
+/**
+ * Per-note result of grading one recording against its song.
+ *
+ * @param song          the song graded against
+ * @param offsetSeconds where the song starts in the recording
+ * @param timings       judgement of each note of the song, by note index
+ * @param offsetsMillis how late (positive) or early each note was played
+ * @param extraNotes    detected notes that matched no note of the song
+ */
+public record GradeReport(Song song, double offsetSeconds, Timing[] timings, double[] offsetsMillis,
+        int extraNotes) {
+
+    public int count(Timing timing) {
+        int count = 0;
+        for (Timing t : timings) {
+            if (t == timing)
+                count++;
+        }
+        return count;
+    }
+
+    /**
+     * @return share of the song's notes that were played within the window
+     */
+    public double accuracy() {
+        return timings.length == 0 ? 0 : 1.0 - (double) count(Timing.MISS) / timings.length;
+    }
+
+    public String summary() {
+        return String.format(Locale.ROOT,
+                "%d notes, %.1f%% played (%d on time, %d early, %d late, %d missed), %d extra, song at %.2f s",
+                timings.length, accuracy() * 100, count(Timing.ON_TIME), count(Timing.EARLY), count(Timing.LATE),
+                count(Timing.MISS), extraNotes, offsetSeconds);
+    }
+
+    /**
+     * Writes one CSV line per note: index, measure, tick, note name,
+     * judgement and offset in milliseconds.
+     */
+    public void export(Path file) throws IOException {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file))) {
+            out.println("# " + summary());
+            out.println("note,measure,tick,name,timing,offset_ms");
+            for (int note = 0; note < timings.length; note++) {
+                out.printf(Locale.ROOT, "%d,%d,%d,%s,%s,%.1f%n", note,
+                        song.getMeterMap().measureAt(song.startTick(note)) + 1, song.startTick(note),
+                        song.noteName(note), timings[note], offsetsMillis[note]);
+            }
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.siano.grading;
+
+import com.siano.GameEngine;
+import com.siano.GameEngine.Timing;
+import com.siano.SimulatedClock;
+import com.siano.audio.DetectedNotes;
+import com.siano.utils.KeyNoteIndex;
+import com.siano.utils.Song;
+import com.siano.utils.TempoMap;
+
+/**
+ * Grades detected notes against a song with the same judgement the game
+ * uses: the song is played headless in real-time mode and every detected
+ * note is fed in at its time in the recording. Where the song starts in the
+ * recording is found first, from the offset most same-key note pairs agree on.
+ */
+public class PerformanceGrader {
+
+    private static final int STEPS_PER_SECOND = 100;
+    private static final double OFFSET_BIN_SECONDS = 0.02;
+    private static final double OFFSET_REFINE_SECONDS = 0.05;
+
+    private final double playbackSpeed;
+
+    /**
+     * @param playbackSpeed speed the recording was played at, relative to the
+     *                      song's own tempo
+     */
+    public PerformanceGrader(double playbackSpeed) {
+        if (playbackSpeed <= 0)
+            throw new IllegalArgumentException("Playback speed must be positive: " + playbackSpeed);
+        this.playbackSpeed = playbackSpeed;
+    }
+
+    public GradeReport grade(Song song, DetectedNotes played) {
+        return grade(song, played, estimateOffset(song, played));
+    }
+
+    /**
+     * @param offsetSeconds where the song starts in the recording
+     */
+    public GradeReport grade(Song song, DetectedNotes played, double offsetSeconds) {
+        int noteCount = song.getNoteCount();
+        Timing[] timings = new Timing[noteCount];
+        double[] offsetsMillis = new double[noteCount];
+        int[] extraNotes = { 0 };
+
+        GameEngine engine = new GameEngine();
+        SimulatedClock clock = new SimulatedClock(1.0 / STEPS_PER_SECOND);
+        engine.setClock(clock);
+        engine.setPlayMode(GameEngine.PlayMode.REALTIME);
+        engine.setPlaybackSpeed(playbackSpeed);
+        engine.setOnTiming((note, midiKey, timing, offsetMillis) -> {
+            timings[note] = timing;
+            offsetsMillis[note] = offsetMillis;
+        });
+        engine.setOnNoteFeedback((midiKey, isCorrect, timestampNanos) -> {
+            if (!isCorrect)
+                extraNotes[0]++;
+        });
+        engine.setNoteEvents(song);
+        engine.start();
+
+        long songStartNanos = clock.nanoTime();
+        int next = 0;
+        int count = played.size();
+        while (next < count && played.seconds()[next] < offsetSeconds)
+            next++;
+        while (engine.getState() != GameEngine.State.FINISHED && clock.step()) {
+            // A note is handed over once the game has reached the time it was played.
+            while (next < count) {
+                long nanos = songStartNanos
+                        + Math.round((played.seconds()[next] - offsetSeconds) * 1_000_000_000.0);
+                if (nanos > clock.nanoTime())
+                    break;
+                engine.handleInputNote(played.keys()[next], 0, nanos);
+                next++;
+            }
+        }
+        engine.stop();
+        extraNotes[0] += count - next;
+        return new GradeReport(song, offsetSeconds, timings, offsetsMillis, extraNotes[0]);
+    }
+
+    /**
+     * Votes over every pair of a detected note and a song note of the same
+     * key for the offset between them; the true offset collects a vote from
+     * nearly every played note, a wrong one only from chance pairs.
+     *
+     * @return where the song most likely starts in the recording, in seconds
+     */
+    public double estimateOffset(Song song, DetectedNotes played) {
+        if (played.size() == 0 || song.isEmpty())
+            return 0;
+        TempoMap tempoMap = song.getTempoMap();
+        KeyNoteIndex index = song.getKeyIndex();
+        double[] noteSeconds = new double[song.getNoteCount()];
+        for (int position = 0; position < noteSeconds.length; position++)
+            noteSeconds[position] = tempoMap.tickToMicros(index.startTick(position)) / 1_000_000.0 / playbackSpeed;
+
+        double songSeconds = tempoMap.tickToMicros(song.getLastTick()) / 1_000_000.0 / playbackSpeed;
+        double lowest = -songSeconds;
+        double recordingSeconds = played.seconds()[played.size() - 1];
+        int[] votes = new int[(int) ((recordingSeconds - lowest) / OFFSET_BIN_SECONDS) + 2];
+        for (int i = 0; i < played.size(); i++) {
+            int key = played.keys()[i];
+            for (int position = index.keyStart(key); position < index.keyEnd(key); position++) {
+                double offset = played.seconds()[i] - noteSeconds[position];
+                if (offset >= lowest)
+                    votes[(int) ((offset - lowest) / OFFSET_BIN_SECONDS)]++;
+            }
+        }
+
+        // Neighbouring bins are summed so an offset on a bin edge is not split.
+        int best = 0;
+        int bestVotes = -1;
+        for (int bin = 0; bin < votes.length; bin++) {
+            int sum = votes[bin] + (bin > 0 ? votes[bin - 1] : 0) + (bin + 1 < votes.length ? votes[bin + 1] : 0);
+            if (sum > bestVotes) {
+                bestVotes = sum;
+                best = bin;
+            }
+        }
+        double estimate = lowest + (best + 0.5) * OFFSET_BIN_SECONDS;
+
+        double sum = 0;
+        int pairs = 0;
+        for (int i = 0; i < played.size(); i++) {
+            int key = played.keys()[i];
+            for (int position = index.keyStart(key); position < index.keyEnd(key); position++) {
+                double offset = played.seconds()[i] - noteSeconds[position];
+                if (Math.abs(offset - estimate) <= OFFSET_REFINE_SECONDS) {
+                    sum += offset;
+                    pairs++;
+                }
+            }
+        }
+        return pairs > 0 ? sum / pairs : estimate;
+    }
+}
@@ -0,0 +1,75 @@
+package com.siano.input;
+
+import javax.sound.midi.MidiDevice;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.MidiUnavailableException;
+import javax.sound.midi.Sequencer;
+import javax.sound.midi.Synthesizer;
+import javax.sound.midi.Transmitter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Note input from a MIDI device such as a digital piano. The device's
+ * transmitter is connected to a {@link NoteQueueReceiver}, so note-on events
+ * reach the queue straight from the MIDI driver thread.
+ */
+public class MidiInputSource implements NoteInputSource {
+
+    private final MidiDevice device;
+    private Transmitter transmitter;
+
+    public MidiInputSource(MidiDevice device) {
+        this.device = device;
+    }
+
+    /**
+     * @return hardware devices that can send MIDI, excluding Java's own
+     *         sequencer and synthesizers
+     */
+    public static List<MidiInputSource> availableSources() {
+        List<MidiInputSource> sources = new ArrayList<>();
+        for (MidiDevice.Info info : MidiSystem.getMidiDeviceInfo()) {
+            try {
+                MidiDevice device = MidiSystem.getMidiDevice(info);
+                if (device instanceof Sequencer || device instanceof Synthesizer)
+                    continue;
+                if (device.getMaxTransmitters() != 0)
+                    sources.add(new MidiInputSource(device));
+            } catch (MidiUnavailableException e) {
+                // Listed but gone by now; skip it.
+            }
+        }
+        return sources;
+    }
+
+    @Override
+    public String getName() {
+        return device.getDeviceInfo().getName();
+    }
+
+    @Override
+    public void start(NoteEventQueue output, Consumer<Exception> onError) {
+        if (transmitter != null)
+            stop();
+        try {
+            if (!device.isOpen())
+                device.open();
+            transmitter = device.getTransmitter();
+            transmitter.setReceiver(new NoteQueueReceiver(output));
+        } catch (MidiUnavailableException e) {
+            onError.accept(e);
+        }
+    }
+
+    @Override
+    public void stop() {
+        if (transmitter != null) {
+            transmitter.close();
+            transmitter = null;
+        }
+        if (device.isOpen())
+            device.close();
+    }
+}
@@ -0,0 +1,103 @@
+package com.siano.input;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded single-producer/single-consumer queue of timestamped note events,
+ * stored in preallocated primitive arrays. The producer (an input thread)
+ * calls {@link #offer}; the consumer (the game loop) calls {@link #drain}.
+ * Neither side locks or allocates; when the queue is full new events are
+ * dropped and counted.
+ */
+public final class NoteEventQueue {
+
+    public interface Handler {
+        void onNoteEvent(int midiKey, int velocity, long timestampNanos);
+    }
+
+    private final int mask;
+    private final int[] keys;
+    private final int[] velocities;
+    private final long[] timestamps;
+
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    // Producer-side copy of head, consumer-side copy of tail.
+    private long producerHeadCache;
+    private long consumerTailCache;
+
+    /**
+     * @param capacity rounded up to a power of two
+     */
+    public NoteEventQueue(int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        int size = Integer.highestOneBit(capacity - 1) << 1;
+        if (capacity == 1)
+            size = 1;
+        this.mask = size - 1;
+        this.keys = new int[size];
+        this.velocities = new int[size];
+        this.timestamps = new long[size];
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Producer side.
+     *
+     * @return false if the queue was full and the event was dropped
+     */
+    public boolean offer(int midiKey, int velocity, long timestampNanos) {
+        long t = tail.get();
+        if (t - producerHeadCache > mask) {
+            producerHeadCache = head.get();
+            if (t - producerHeadCache > mask) {
+                dropped.lazySet(dropped.get() + 1);
+                return false;
+            }
+        }
+        int slot = (int) t & mask;
+        keys[slot] = midiKey;
+        velocities[slot] = velocity;
+        timestamps[slot] = timestampNanos;
+        tail.lazySet(t + 1);
+        return true;
+    }
+
+    /**
+     * Consumer side: hands every queued event to {@code handler} in arrival order.
+     *
+     * @return the number of events drained
+     */
+    public int drain(Handler handler) {
+        long h = head.get();
+        if (h >= consumerTailCache) {
+            consumerTailCache = tail.get();
+            if (h >= consumerTailCache)
+                return 0;
+        }
+        long end = consumerTailCache;
+        int count = 0;
+        while (h < end) {
+            int slot = (int) h & mask;
+            handler.onNoteEvent(keys[slot], velocities[slot], timestamps[slot]);
+            h++;
+            count++;
+            head.lazySet(h);
+        }
+        return count;
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public int size() {
+        return (int) (tail.get() - head.get());
+    }
+}
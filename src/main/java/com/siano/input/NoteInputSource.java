@@ -0,0 +1,18 @@
+package com.siano.input;
+
+import java.util.function.Consumer;
+
+/**
+ * Something the player can play notes into: the microphone, a MIDI keyboard
+ * or a simulated player. A started source offers note-on events to its queue
+ * from its own thread until {@link #stop} is called. Each running source
+ * should get its own queue, as the queue only supports a single producer.
+ */
+public interface NoteInputSource {
+
+    String getName();
+
+    void start(NoteEventQueue output, Consumer<Exception> onError);
+
+    void stop();
+}
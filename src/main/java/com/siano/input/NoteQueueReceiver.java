@@ -0,0 +1,45 @@
+package com.siano.input;
+
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+
+/**
+ * MIDI {@link Receiver} that turns note-on messages into queued note events.
+ * Everything else, including note-on with velocity 0, is ignored. Messages
+ * may be sent from any single thread, typically the MIDI driver's.
+ */
+public class NoteQueueReceiver implements Receiver {
+
+    private final NoteEventQueue output;
+
+    // Maps device timestamps (microseconds, arbitrary origin) onto System.nanoTime().
+    private long timestampOffsetNanos = Long.MIN_VALUE;
+
+    public NoteQueueReceiver(NoteEventQueue output) {
+        this.output = output;
+    }
+
+    @Override
+    public void send(MidiMessage message, long timeStamp) {
+        if (!(message instanceof ShortMessage shortMessage))
+            return;
+        if (shortMessage.getCommand() != ShortMessage.NOTE_ON || shortMessage.getData2() == 0)
+            return;
+        output.offer(shortMessage.getData1(), shortMessage.getData2(), toNanoTime(timeStamp));
+    }
+
+    private long toNanoTime(long timeStampMicros) {
+        long now = System.nanoTime();
+        if (timeStampMicros < 0)
+            return now;
+        long deviceNanos = timeStampMicros * 1000;
+        if (timestampOffsetNanos == Long.MIN_VALUE || now - deviceNanos < timestampOffsetNanos)
+            timestampOffsetNanos = now - deviceNanos;
+        return Math.min(now, timestampOffsetNanos + deviceNanos);
+    }
+
+    @Override
+    public void close() {
+    }
+}
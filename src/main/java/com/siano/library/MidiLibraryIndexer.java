@@ -0,0 +1,144 @@
+package com.siano.library;
+
+import com.siano.utils.Song;
+import com.siano.utils.SongCache;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+
+/**
+ * Scans a MIDI directory tree in the background, parsing files in parallel
+ * through the {@link SongCache}'s disk layer, and keeps the results current
+ * by watching the tree for changes. Listener callbacks arrive on worker
+ * threads.
+ */
+public class MidiLibraryIndexer {
+
+    public interface Listener {
+        void onIndexed(SongInfo info);
+
+        void onRemoved(Path file);
+    }
+
+    private final Path root;
+    private final SongCache songCache;
+    private final Listener listener;
+    private final ForkJoinPool workers = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    private final Map<WatchKey, Path> watchedDirs = new ConcurrentHashMap<>();
+
+    private WatchService watchService;
+    private Thread watchThread;
+
+    public MidiLibraryIndexer(Path root, SongCache songCache, Listener listener) {
+        this.root = root;
+        this.songCache = songCache;
+        this.listener = listener;
+    }
+
+    public void start() {
+        watchThread = new Thread(this::run, "MIDI Library Indexer");
+        watchThread.setDaemon(true);
+        watchThread.start();
+    }
+
+    public void stop() {
+        try {
+            if (watchService != null)
+                watchService.close();
+        } catch (IOException e) {
+            System.err.println("Could not close library watcher: " + e.getMessage());
+        }
+        if (watchThread != null)
+            watchThread.interrupt();
+        workers.shutdownNow();
+    }
+
+    private void run() {
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            registerTree(root);
+            while (!Thread.currentThread().isInterrupted()) {
+                WatchKey key = watchService.take();
+                Path dir = watchedDirs.get(key);
+                if (dir != null) {
+                    for (WatchEvent<?> event : key.pollEvents())
+                        handleEvent(dir, event);
+                }
+                if (!key.reset())
+                    watchedDirs.remove(key);
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // stopped
+        } catch (IOException e) {
+            System.err.println("MIDI library indexing failed: " + e.getMessage());
+        }
+    }
+
+    private void handleEvent(Path dir, WatchEvent<?> event) throws IOException {
+        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+            registerTree(root);
+            return;
+        }
+        Path path = dir.resolve((Path) event.context()).toAbsolutePath().normalize();
+        if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+            if (isMidiFile(path)) {
+                songCache.evict(path);
+                listener.onRemoved(path);
+            }
+        } else if (Files.isDirectory(path)) {
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE)
+                registerTree(path);
+        } else if (isMidiFile(path)) {
+            submit(path);
+        }
+    }
+
+    private void registerTree(Path start) throws IOException {
+        try (Stream<Path> paths = Files.walk(start)) {
+            paths.forEach(path -> {
+                if (Files.isDirectory(path)) {
+                    register(path);
+                } else if (Files.isRegularFile(path) && isMidiFile(path)) {
+                    submit(path);
+                }
+            });
+        }
+    }
+
+    private void register(Path dir) {
+        try {
+            WatchKey key = dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+            watchedDirs.put(key, dir);
+        } catch (IOException e) {
+            System.err.println("Cannot watch " + dir + ": " + e.getMessage());
+        }
+    }
+
+    private void submit(Path file) {
+        workers.execute(() -> {
+            try {
+                Song song = songCache.loadWithoutMemory(file);
+                listener.onIndexed(SongInfo.of(file.toAbsolutePath().normalize(), song));
+            } catch (Exception e) {
+                System.err.println("Skipping " + file + ": " + e.getMessage());
+            }
+        });
+    }
+
+    private static boolean isMidiFile(Path path) {
+        String name = path.getFileName().toString().toLowerCase();
+        return name.endsWith(".mid") || name.endsWith(".midi");
+    }
+}
@@ -0,0 +1,42 @@
+package com.siano.library;
+
+import com.siano.utils.Song;
+
+import java.nio.file.Path;
+
+public record SongInfo(Path path, String name, double durationSeconds, int noteCount, int lowestKey, int highestKey,
+        double chordDensity, double difficulty) {
+
+    public static SongInfo of(Path path, Song song) {
+        String fileName = path.getFileName().toString();
+        int dot = fileName.lastIndexOf('.');
+        String name = dot > 0 ? fileName.substring(0, dot) : fileName;
+
+        int noteCount = song.getNoteCount();
+        if (noteCount == 0)
+            return new SongInfo(path, name, 0, 0, 0, 0, 0, 0);
+
+        int lowestKey = 127;
+        int highestKey = 0;
+        for (int i = 0; i < noteCount; i++) {
+            lowestKey = Math.min(lowestKey, song.key(i));
+            highestKey = Math.max(highestKey, song.key(i));
+        }
+
+        double duration = song.getTempoMap().tickToMicros(song.getLastTick()) / 1_000_000.0;
+        double chordDensity = (double) noteCount / song.getEventCount();
+        double difficulty = estimateDifficulty(noteCount, song.getEventCount(), duration, chordDensity,
+                highestKey - lowestKey);
+        return new SongInfo(path, name, duration, noteCount, lowestKey, highestKey, chordDensity, difficulty);
+    }
+
+    // Rough 0-10 score: how many chords per second have to be found, how
+    // full they are and how far the hands have to travel across the keyboard.
+    private static double estimateDifficulty(int noteCount, int eventCount, double duration, double chordDensity,
+            int keySpan) {
+        double eventsPerSecond = duration > 0 ? eventCount / duration : eventCount;
+        double score = eventsPerSecond * 1.5 + (chordDensity - 1) * 1.5 + keySpan / 12.0 * 0.5
+                + Math.log10(Math.max(1, noteCount)) * 0.5;
+        return Math.max(0, Math.min(10, score));
+    }
+}
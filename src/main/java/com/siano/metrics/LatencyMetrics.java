@@ -0,0 +1,75 @@
+package com.siano.metrics;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * The histograms the app keeps about itself. Latencies are measured from the
+ * estimated capture time of the audio (or MIDI arrival) to each later stage:
+ * pitch detected, judged by the engine, and feedback laid out for rendering.
+ * Each histogram is written by one thread only: the pitch histogram by the
+ * audio thread, all others by the JavaFX thread.
+ */
+public final class LatencyMetrics {
+
+    private final LatencyHistogram captureToPitch = new LatencyHistogram("Ses -> perde");
+    private final LatencyHistogram captureToJudgement = new LatencyHistogram("Ses -> karar");
+    private final LatencyHistogram captureToRender = new LatencyHistogram("Ses -> ekran");
+    private final LatencyHistogram frameTime = new LatencyHistogram("Kare süresi");
+    private final LatencyHistogram notesViewUpdate = new LatencyHistogram("Nota çizimi");
+
+    public LatencyHistogram getCaptureToPitch() {
+        return captureToPitch;
+    }
+
+    public LatencyHistogram getCaptureToJudgement() {
+        return captureToJudgement;
+    }
+
+    public LatencyHistogram getCaptureToRender() {
+        return captureToRender;
+    }
+
+    public LatencyHistogram getFrameTime() {
+        return frameTime;
+    }
+
+    public LatencyHistogram getNotesViewUpdate() {
+        return notesViewUpdate;
+    }
+
+    public List<LatencyHistogram> all() {
+        return List.of(captureToPitch, captureToJudgement, captureToRender, frameTime, notesViewUpdate);
+    }
+
+    /**
+     * @return one line per histogram with count and percentiles in milliseconds
+     */
+    public String format() {
+        StringBuilder text = new StringBuilder(String.format("%-14s %7s %7s %7s %7s %7s%n", "", "adet", "p50", "p90",
+                "p99", "maks"));
+        for (LatencyHistogram histogram : all()) {
+            text.append(String.format("%-14s %7d %7.2f %7.2f %7.2f %7.2f%n", histogram.getName(),
+                    histogram.getCount(), millis(histogram.getPercentileNanos(50)),
+                    millis(histogram.getPercentileNanos(90)), millis(histogram.getPercentileNanos(99)),
+                    millis(histogram.getMaxNanos())));
+        }
+        return text.toString();
+    }
+
+    public void export(Path file) throws IOException {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8))) {
+            out.println("# Siano metrics, " + LocalDateTime.now() + " (ms)");
+            out.print(format());
+        }
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+}
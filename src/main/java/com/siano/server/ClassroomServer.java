@@ -0,0 +1,323 @@
+package com.siano.server;
+
+import com.siano.GameEngine;
+import com.siano.metrics.LatencyHistogram;
+import com.siano.utils.MidiReader;
+import com.siano.utils.Song;
+import com.siano.utils.SongCache;
+
+import javax.sound.midi.InvalidMidiDataException;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Judges many students at once without a window or sound card. Every
+ * student gets a session with a game engine of its own, but not a thread:
+ * sessions are spread over a few shards, and a small fixed pool of workers
+ * ticks each shard at a fixed rate. One I/O thread serves all clients over
+ * non-blocking sockets and hands their notes to the sessions' input queues.
+ * Songs are loaded on a separate thread, so a slow parse does not hold up
+ * the other clients, and come from a {@link SongCache}, so every session
+ * playing a song shares one parsed copy of it.
+ * <p>
+ * The protocol is one line of text per message. A client sends
+ * {@code PLAY <song file> [realtime|wait] [speed]} to start a song from the
+ * server's song directory, {@code NOTE <key> [velocity]} for every note it
+ * plays, {@code STOP} to end the song and {@code QUIT} to disconnect. Notes
+ * are timed when they arrive and taken from {@code READY} until the song
+ * finishes. The server answers with {@code READY <notes>},
+ * {@code TARGET <key>} for every awaited key in wait mode, {@code HIT <key>}
+ * or {@code WRONG <key>} for every note,
+ * {@code TIMING <note> <key> <EARLY|ON_TIME|LATE|MISS> <offset ms>} in
+ * real-time mode, {@code FINISHED <on time> <early> <late> <missed>} and
+ * {@code ERROR <message>}.
+ */
+public class ClassroomServer implements Closeable {
+
+    public static final int DEFAULT_PORT = 7070;
+    private static final int DEFAULT_TICK_RATE = 100;
+    private static final long STATS_INTERVAL_NANOS = 5_000_000_000L;
+
+    private final Path songDir;
+    private final SongCache songCache;
+    private final SessionShard[] shards;
+    private final int workerCount;
+    private final ScheduledExecutorService workers;
+    private final ExecutorService loader;
+    private final long tickNanos;
+    private volatile Selector selector;
+    private volatile boolean running = true;
+    private int nextSessionId = 1;
+
+    public ClassroomServer(Path songDir, SongCache songCache, int workerCount, int tickRate) {
+        if (workerCount <= 0 || tickRate <= 0)
+            throw new IllegalArgumentException("Workers and tick rate must be positive");
+        this.songDir = songDir.toAbsolutePath().normalize();
+        this.songCache = songCache;
+        this.workerCount = workerCount;
+        this.tickNanos = 1_000_000_000L / tickRate;
+        this.workers = Executors.newScheduledThreadPool(workerCount, runnable -> {
+            Thread thread = new Thread(runnable, "classroom-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.loader = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "classroom-loader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // A few shards per worker, so one slow shard does not hold up the rest.
+        shards = new SessionShard[workerCount * 4];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new SessionShard();
+            workers.scheduleAtFixedRate(shards[i], tickNanos * i / shards.length, tickNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Starts sessions played by simulated students instead of clients.
+     */
+    public void simulate(String songFile, int count, double playbackSpeed, double jitterMillis, double missRate)
+            throws InvalidMidiDataException, IOException {
+        Song song = loadSong(songFile);
+        for (int i = 0; i < count; i++) {
+            SimulatedStudent student = new SimulatedStudent(song, playbackSpeed, jitterMillis, missRate, i);
+            Session session = new Session("local-" + nextSessionId++, song, GameEngine.PlayMode.REALTIME,
+                    playbackSpeed, null, student);
+            session.start();
+            addSession(session);
+        }
+    }
+
+    /**
+     * Accepts clients on {@code port} and serves them on the calling thread
+     * until {@link #close} is called.
+     */
+    public void serve(int port) throws IOException {
+        try (Selector selector = Selector.open(); ServerSocketChannel server = ServerSocketChannel.open()) {
+            this.selector = selector;
+            server.bind(new InetSocketAddress(port));
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+            System.out.println("Classroom server listening on port " + port + " with " + workerCount + " workers, "
+                    + 1_000_000_000L / tickNanos + " ticks/s");
+
+            long nextStats = System.nanoTime() + STATS_INTERVAL_NANOS;
+            while (running) {
+                selector.select(Math.max(1, (nextStats - System.nanoTime()) / 1_000_000));
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid())
+                        continue;
+                    if (key.isAcceptable()) {
+                        SocketChannel channel = server.accept();
+                        if (channel != null) {
+                            channel.configureBlocking(false);
+                            Connection connection = new Connection(channel);
+                            connection.setKey(channel.register(selector, SelectionKey.OP_READ, connection));
+                        }
+                        continue;
+                    }
+                    Connection connection = (Connection) key.attachment();
+                    if (key.isWritable())
+                        connection.flushPending();
+                    if (key.isValid() && key.isReadable())
+                        read(connection);
+                }
+                if (System.nanoTime() >= nextStats) {
+                    printStats();
+                    nextStats += STATS_INTERVAL_NANOS;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        Selector current = selector;
+        if (current != null)
+            current.wakeup();
+        workers.shutdownNow();
+        loader.shutdownNow();
+    }
+
+    private void read(Connection connection) {
+        long now = System.nanoTime();
+        ByteBuffer input = connection.input;
+        try {
+            if (connection.channel.read(input) < 0) {
+                connection.close();
+                return;
+            }
+        } catch (IOException e) {
+            connection.close();
+            return;
+        }
+
+        input.flip();
+        int lineStart = 0;
+        for (int i = input.position(); i < input.limit(); i++) {
+            if (input.get(i) == '\n') {
+                String line = new String(input.array(), lineStart, i - lineStart, StandardCharsets.UTF_8).trim();
+                lineStart = i + 1;
+                if (!line.isEmpty() && !connection.isClosed())
+                    handleLine(connection, line, now);
+            }
+        }
+        input.position(lineStart);
+        input.compact();
+        if (!input.hasRemaining()) {
+            connection.send("ERROR line too long");
+            connection.close();
+        }
+    }
+
+    private void handleLine(Connection connection, String line, long nowNanos) {
+        String[] parts = line.split("\\s+");
+        try {
+            switch (parts[0].toUpperCase(Locale.ROOT)) {
+            case "NOTE" -> {
+                Session session = connection.getSession();
+                if (session == null) {
+                    connection.send("ERROR no song playing");
+                    return;
+                }
+                int key = Integer.parseInt(parts[1]);
+                int velocity = parts.length > 2 ? Integer.parseInt(parts[2]) : 64;
+                if (!session.offerNote(key, velocity, nowNanos))
+                    connection.send("ERROR too many notes");
+            }
+            case "PLAY" -> {
+                GameEngine.PlayMode playMode = GameEngine.PlayMode.REALTIME;
+                if (parts.length > 2 && parts[2].equalsIgnoreCase("wait"))
+                    playMode = GameEngine.PlayMode.WAIT;
+                else if (parts.length > 2 && !parts[2].equalsIgnoreCase("realtime"))
+                    throw new IllegalArgumentException("unknown mode " + parts[2]);
+                double speed = parts.length > 3 ? Double.parseDouble(parts[3]) : 1.0;
+                if (!(speed > 0))
+                    throw new IllegalArgumentException("speed must be positive");
+                play(connection, parts[1], playMode, speed);
+            }
+            case "STOP" -> {
+                connection.newRequest();
+                connection.stopSession();
+            }
+            case "QUIT" -> connection.close();
+            default -> connection.send("ERROR unknown command " + parts[0]);
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            connection.send("ERROR missing argument");
+        } catch (IllegalArgumentException e) {
+            connection.send("ERROR " + e.getMessage());
+        }
+    }
+
+    private void play(Connection connection, String songFile, GameEngine.PlayMode playMode, double speed) {
+        int request = connection.newRequest();
+        String name = "client-" + nextSessionId++;
+        loader.execute(() -> {
+            try {
+                Session session = new Session(name, loadSong(songFile), playMode, speed, connection, null);
+                if (connection.startSession(request, session))
+                    addSession(session);
+            } catch (NoSuchFileException e) {
+                connection.send("ERROR no such song " + songFile);
+            } catch (InvalidMidiDataException | IOException e) {
+                connection.send("ERROR " + e.getMessage());
+            }
+        });
+    }
+
+    private Song loadSong(String songFile) throws InvalidMidiDataException, IOException {
+        Path file = songDir.resolve(songFile).normalize();
+        if (!file.startsWith(songDir))
+            throw new NoSuchFileException(songFile);
+        return songCache.load(file);
+    }
+
+    private void addSession(Session session) {
+        SessionShard emptiest = shards[0];
+        for (SessionShard shard : shards) {
+            if (shard.size() < emptiest.size())
+                emptiest = shard;
+        }
+        emptiest.add(session);
+    }
+
+    private void printStats() {
+        int active = 0;
+        long ended = 0;
+        long judged = 0;
+        long ticks = 0;
+        long p99 = 0;
+        long max = 0;
+        for (SessionShard shard : shards) {
+            active += shard.size();
+            ended += shard.getEndedSessions();
+            judged += shard.getJudgedNotes();
+            LatencyHistogram tickTime = shard.getTickTime();
+            ticks += tickTime.getCount();
+            p99 = Math.max(p99, tickTime.getPercentileNanos(99));
+            max = Math.max(max, tickTime.getMaxNanos());
+        }
+        if (ticks == 0)
+            return;
+        System.out.printf(Locale.ROOT,
+                "%s sessions %d active, %d ended (%d notes judged); tick p99 %.2f ms, max %.2f ms of %.1f ms%n",
+                LocalTime.now().truncatedTo(ChronoUnit.SECONDS), active, ended, judged, p99 / 1e6, max / 1e6,
+                tickNanos / 1e6);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: ClassroomServer <midi dir> [--port <n>] [--workers <n>] [--rate <ticks/s>]"
+                    + " [--simulate <count> <song file>]");
+            return;
+        }
+        int port = DEFAULT_PORT;
+        int workerCount = Runtime.getRuntime().availableProcessors();
+        int tickRate = DEFAULT_TICK_RATE;
+        int simulated = 0;
+        String simulatedSong = null;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("--port") && i + 1 < args.length)
+                port = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--workers") && i + 1 < args.length)
+                workerCount = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--rate") && i + 1 < args.length)
+                tickRate = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--simulate") && i + 2 < args.length) {
+                simulated = Integer.parseInt(args[++i]);
+                simulatedSong = args[++i];
+            }
+        }
+
+        SongCache songCache = new SongCache(Paths.get("midi-cache"), new MidiReader(), 64);
+        try (ClassroomServer server = new ClassroomServer(Paths.get(args[0]), songCache, workerCount, tickRate)) {
+            if (simulatedSong != null)
+                server.simulate(simulatedSong, simulated, 1.0, 25, 0.03);
+            server.serve(port);
+        }
+    }
+}
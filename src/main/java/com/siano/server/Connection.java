@@ -0,0 +1,147 @@
+package com.siano.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A client socket of the {@link ClassroomServer}. Reading is done by the
+ * server's I/O thread alone; lines are sent from whichever thread has
+ * something to say, usually the worker running the client's session.
+ * Sending never blocks: what the socket does not take right away is kept,
+ * and the I/O thread is asked to write it out as soon as the socket has
+ * room. A client that stops reading is disconnected once that backlog
+ * fills up.
+ */
+final class Connection {
+
+    private static final int INPUT_CAPACITY = 1024;
+    private static final int OUTPUT_CAPACITY = 16 * 1024;
+
+    final SocketChannel channel;
+    final ByteBuffer input = ByteBuffer.allocate(INPUT_CAPACITY);
+    private final ByteBuffer output = ByteBuffer.allocate(OUTPUT_CAPACITY);
+    private SelectionKey key;
+    private volatile Session session;
+    private int requests = 0;
+    private boolean closed = false;
+
+    Connection(SocketChannel channel) {
+        this.channel = channel;
+    }
+
+    void setKey(SelectionKey key) {
+        this.key = key;
+    }
+
+    Session getSession() {
+        return session;
+    }
+
+    /**
+     * I/O thread: a new PLAY or STOP supersedes every request made before it.
+     *
+     * @return number of the new request
+     */
+    synchronized int newRequest() {
+        return ++requests;
+    }
+
+    /**
+     * Ends the current session, if any, and starts {@code next} in its
+     * place, unless the client has disconnected or made another request
+     * since {@code request}.
+     *
+     * @return whether {@code next} was started
+     */
+    synchronized boolean startSession(int request, Session next) {
+        if (closed || request != requests)
+            return false;
+        replaceSession(next);
+        send("READY " + next.getNoteCount());
+        next.start();
+        return true;
+    }
+
+    synchronized void stopSession() {
+        replaceSession(null);
+    }
+
+    /**
+     * Worker thread: the finished session no longer takes notes.
+     */
+    synchronized void sessionFinished(Session finished) {
+        if (session == finished)
+            session = null;
+    }
+
+    private void replaceSession(Session next) {
+        Session previous = session;
+        session = next;
+        if (previous != null)
+            previous.close();
+    }
+
+    synchronized void send(String line) {
+        if (closed)
+            return;
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        try {
+            flush();
+            if (bytes.length + 1 > output.remaining()) {
+                close();
+                return;
+            }
+            output.put(bytes).put((byte) '\n');
+            flush();
+            if (output.position() > 0) {
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                key.selector().wakeup();
+            }
+        } catch (IOException | CancelledKeyException e) {
+            close();
+        }
+    }
+
+    /**
+     * I/O thread: writes what is left over once the socket has room again.
+     */
+    synchronized void flushPending() {
+        if (closed)
+            return;
+        try {
+            flush();
+            if (output.position() == 0)
+                key.interestOps(SelectionKey.OP_READ);
+        } catch (IOException | CancelledKeyException e) {
+            close();
+        }
+    }
+
+    private void flush() throws IOException {
+        output.flip();
+        try {
+            channel.write(output);
+        } finally {
+            output.compact();
+        }
+    }
+
+    synchronized boolean isClosed() {
+        return closed;
+    }
+
+    synchronized void close() {
+        if (closed)
+            return;
+        closed = true;
+        replaceSession(null);
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package com.siano.server;
+
+import com.siano.GameEngine;
+import com.siano.input.NoteEventQueue;
+import com.siano.metrics.LatencyHistogram;
+import com.siano.utils.MidiReader;
+import com.siano.utils.Song;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load test for the {@link ClassroomServer}: connects many clients that
+ * each play the same song as a {@link SimulatedStudent}. Two threads do all
+ * the work, one sending every client's due notes each millisecond and one
+ * reading every reply. The round trip from sending a note to its HIT or
+ * WRONG reply is measured, and the judgements are totalled once every
+ * client has finished.
+ */
+public class LoadGenerator {
+
+    private static final long PLAYER_PERIOD_MICROS = 1000;
+    private static final double GRACE_SECONDS = 30;
+
+    private final List<Client> clients = new ArrayList<>();
+    private final LatencyHistogram roundTrip = new LatencyHistogram("Round trip");
+    private final int[] timingCounts = new int[GameEngine.Timing.values().length];
+    private int finished = 0;
+    private int failed = 0;
+
+    // The player thread uses the student, output, sent and notes; the reader thread the rest.
+    private final class Client implements NoteEventQueue.Handler {
+        final SocketChannel channel;
+        final SimulatedStudent student;
+        final ByteBuffer input = ByteBuffer.allocate(4096);
+        // What the socket has not taken yet; written again on the next player tick.
+        final ByteBuffer output = ByteBuffer.allocate(4096);
+        boolean outputClosed = false;
+        // Send times go from the player to the reader through this queue.
+        final NoteEventQueue sent = new NoteEventQueue(4096);
+        final long[] pending = new long[4096];
+        int pendingHead = 0;
+        int pendingTail = 0;
+        volatile long readyNanos = 0;
+        boolean done = false;
+        final NoteEventQueue.Handler notes = (midiKey, velocity, timestampNanos) -> sendNote(midiKey, velocity);
+
+        Client(SocketChannel channel, SimulatedStudent student) {
+            this.channel = channel;
+            this.student = student;
+        }
+
+        @Override
+        public void onNoteEvent(int midiKey, int velocity, long timestampNanos) {
+            pending[pendingTail++ & (pending.length - 1)] = timestampNanos;
+        }
+
+        long takeSendTime() {
+            sent.drain(this);
+            return pendingHead < pendingTail ? pending[pendingHead++ & (pending.length - 1)] : 0;
+        }
+
+        void sendNote(int midiKey, int velocity) {
+            // Queued before writing, so the reply cannot arrive before its send time does.
+            sent.offer(midiKey, velocity, System.nanoTime());
+            send("NOTE " + midiKey + " " + velocity);
+        }
+
+        void send(String line) {
+            if (outputClosed)
+                return;
+            byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length + 1 > output.remaining()) {
+                closeOutput();
+                return;
+            }
+            output.put(bytes).put((byte) '\n');
+            flush();
+        }
+
+        void flush() {
+            if (outputClosed || output.position() == 0)
+                return;
+            output.flip();
+            try {
+                channel.write(output);
+            } catch (IOException e) {
+                closeOutput();
+            } finally {
+                output.compact();
+            }
+        }
+
+        // Stops sending; the server then closes the connection and the reader counts the client as failed.
+        private void closeOutput() {
+            outputClosed = true;
+            try {
+                channel.shutdownOutput();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    public void run(String host, int port, Path midiFile, int clientCount, double playbackSpeed,
+                    double jitterMillis, double missRate) throws Exception {
+        Song song = new MidiReader().readNoteEvents(midiFile);
+        double songSeconds = song.getTempoMap().tickToMicros(song.getLastTick()) / 1_000_000.0 / playbackSpeed;
+        String play = String.format(Locale.ROOT, "PLAY %s realtime %s", midiFile.getFileName(), playbackSpeed);
+
+        try (Selector selector = Selector.open()) {
+            for (int i = 0; i < clientCount; i++) {
+                SocketChannel channel = SocketChannel.open(new InetSocketAddress(host, port));
+                channel.configureBlocking(false);
+                Client client = new Client(channel,
+                        new SimulatedStudent(song, playbackSpeed, jitterMillis, missRate, i));
+                channel.register(selector, SelectionKey.OP_READ, client);
+                clients.add(client);
+            }
+            System.out.println("Connected " + clientCount + " clients; playing " + midiFile.getFileName()
+                    + String.format(Locale.ROOT, " (%.0f s)", songSeconds));
+
+            ScheduledExecutorService player = Executors.newSingleThreadScheduledExecutor();
+            try {
+                for (Client client : clients)
+                    client.send(play);
+                player.scheduleAtFixedRate(this::playDueNotes, 0, PLAYER_PERIOD_MICROS, TimeUnit.MICROSECONDS);
+
+                long deadline = System.nanoTime() + (long) ((songSeconds + GRACE_SECONDS) * 1_000_000_000L);
+                while (finished + failed < clientCount && System.nanoTime() < deadline) {
+                    selector.select(100);
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        if (key.isValid() && key.isReadable())
+                            read((Client) key.attachment());
+                    }
+                }
+            } finally {
+                player.shutdownNow();
+                player.awaitTermination(1, TimeUnit.SECONDS);
+                for (Client client : clients)
+                    client.channel.close();
+            }
+        }
+        printSummary(clientCount);
+    }
+
+    private void playDueNotes() {
+        long now = System.nanoTime();
+        for (Client client : clients) {
+            if (client.readyNanos == 0)
+                continue;
+            client.flush();
+            if (!client.student.isStarted())
+                client.student.start(client.readyNanos);
+            client.student.play(now, client.notes);
+        }
+    }
+
+    private void read(Client client) {
+        long now = System.nanoTime();
+        ByteBuffer input = client.input;
+        try {
+            if (client.channel.read(input) < 0) {
+                end(client, false);
+                return;
+            }
+        } catch (IOException e) {
+            end(client, false);
+            return;
+        }
+        input.flip();
+        int lineStart = 0;
+        for (int i = input.position(); i < input.limit(); i++) {
+            if (input.get(i) == '\n') {
+                handleLine(client, new String(input.array(), lineStart, i - lineStart, StandardCharsets.UTF_8), now);
+                lineStart = i + 1;
+            }
+        }
+        input.position(lineStart);
+        input.compact();
+    }
+
+    private void handleLine(Client client, String line, long nowNanos) {
+        String[] parts = line.split(" ");
+        switch (parts[0]) {
+        case "READY" -> client.readyNanos = nowNanos;
+        case "HIT", "WRONG" -> {
+            long sentNanos = client.takeSendTime();
+            if (sentNanos != 0)
+                roundTrip.record(nowNanos - sentNanos);
+        }
+        case "TIMING" -> timingCounts[GameEngine.Timing.valueOf(parts[3]).ordinal()]++;
+        case "FINISHED" -> end(client, true);
+        case "ERROR" -> {
+            System.err.println("Server: " + line);
+            end(client, false);
+        }
+        default -> {
+        }
+        }
+    }
+
+    private void end(Client client, boolean success) {
+        if (client.done)
+            return;
+        client.done = true;
+        if (success)
+            finished++;
+        else
+            failed++;
+        try {
+            client.channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void printSummary(int clientCount) {
+        long sent = 0;
+        for (Client client : clients)
+            sent += client.student.getNoteCount();
+        System.out.printf(Locale.ROOT, "%d of %d clients finished, %d failed; %d notes in the performances%n",
+                finished, clientCount, failed, sent);
+        System.out.printf(Locale.ROOT, "Judged: %d on time, %d early, %d late, %d missed%n",
+                timingCounts[GameEngine.Timing.ON_TIME.ordinal()], timingCounts[GameEngine.Timing.EARLY.ordinal()],
+                timingCounts[GameEngine.Timing.LATE.ordinal()], timingCounts[GameEngine.Timing.MISS.ordinal()]);
+        System.out.printf(Locale.ROOT, "Round trip over %d notes: p50 %.2f ms, p99 %.2f ms, max %.2f ms%n",
+                roundTrip.getCount(), roundTrip.getPercentileNanos(50) / 1e6,
+                roundTrip.getPercentileNanos(99) / 1e6, roundTrip.getMaxNanos() / 1e6);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: LoadGenerator <midi file> [--host <host>] [--port <n>] [--clients <n>]"
+                    + " [--speed <factor>] [--jitter <ms>] [--miss <rate>]");
+            return;
+        }
+        String host = "localhost";
+        int port = ClassroomServer.DEFAULT_PORT;
+        int clientCount = 100;
+        double speed = 1.0;
+        double jitter = 25;
+        double miss = 0.03;
+        for (int i = 1; i + 1 < args.length; i++) {
+            switch (args[i]) {
+            case "--host" -> host = args[++i];
+            case "--port" -> port = Integer.parseInt(args[++i]);
+            case "--clients" -> clientCount = Integer.parseInt(args[++i]);
+            case "--speed" -> speed = Double.parseDouble(args[++i]);
+            case "--jitter" -> jitter = Double.parseDouble(args[++i]);
+            case "--miss" -> miss = Double.parseDouble(args[++i]);
+            default -> {
+            }
+            }
+        }
+        new LoadGenerator().run(host, port, Paths.get(args[0]), clientCount, speed, jitter, miss);
+    }
+}
@@ -0,0 +1,161 @@
+package com.siano.server;
+
+import com.siano.GameClock;
+import com.siano.GameEngine;
+import com.siano.input.NoteEventQueue;
+import com.siano.utils.Song;
+
+import java.util.Locale;
+
+/**
+ * One student playing one song: a {@link GameEngine} of its own, fed either
+ * by the I/O thread from a client's notes or by a {@link SimulatedStudent}.
+ * The session is created and started before it is handed to a shard, and
+ * from then on only ticked by the shard's worker; notes cross over through
+ * its input queue.
+ */
+final class Session {
+
+    private static final int INPUT_CAPACITY = 256;
+
+    private final String name;
+    private final Song song;
+    private final GameEngine engine = new GameEngine();
+    private final NoteEventQueue input = new NoteEventQueue(INPUT_CAPACITY);
+    private final WallClock clock = new WallClock();
+    private final Connection connection;
+    private final SimulatedStudent student;
+    private final NoteEventQueue.Handler studentInput;
+    private volatile boolean closed = false;
+    private boolean finished = false;
+
+    /**
+     * @param connection where the session reports to, or null for none
+     * @param student    who plays, or null when the connection's client does
+     */
+    Session(String name, Song song, GameEngine.PlayMode playMode, double playbackSpeed, Connection connection,
+            SimulatedStudent student) {
+        this.name = name;
+        this.song = song;
+        this.connection = connection;
+        this.student = student;
+        this.studentInput = student != null ? input::offer : null;
+
+        engine.setClock(clock);
+        engine.addInputQueue(input);
+        engine.setPlayMode(playMode);
+        engine.setPlaybackSpeed(playbackSpeed);
+        if (connection != null) {
+            engine.setOnTiming((note, midiKey, timing, offsetMillis) -> connection.send(
+                    String.format(Locale.ROOT, "TIMING %d %d %s %.1f", note, midiKey, timing, offsetMillis)));
+            engine.setOnNoteFeedback((midiKey, isCorrect, timestampNanos) ->
+                    connection.send((isCorrect ? "HIT " : "WRONG ") + midiKey));
+            engine.setOnTargetNotesChanged(new GameEngine.TargetListener() {
+                @Override
+                public void onTargetAdded(int midiKey) {
+                    // In real-time mode the song does not wait, so targets are not announced.
+                    if (!engine.isRealtime())
+                        connection.send("TARGET " + midiKey);
+                }
+
+                @Override
+                public void onTargetRemoved(int midiKey) {
+                }
+            });
+        }
+        engine.setOnGameFinished(() -> {
+            finished = true;
+            if (connection != null) {
+                connection.send("FINISHED " + engine.getTimingCount(GameEngine.Timing.ON_TIME) + " "
+                        + engine.getTimingCount(GameEngine.Timing.EARLY) + " "
+                        + engine.getTimingCount(GameEngine.Timing.LATE) + " "
+                        + engine.getTimingCount(GameEngine.Timing.MISS));
+                connection.sessionFinished(this);
+            }
+        });
+    }
+
+    /**
+     * Starts the song now.
+     */
+    void start() {
+        long now = System.nanoTime();
+        clock.nanos = now;
+        engine.setNoteEvents(song);
+        engine.start();
+        if (student != null)
+            student.start(now);
+    }
+
+    String getName() {
+        return name;
+    }
+
+    int getNoteCount() {
+        return song.getNoteCount();
+    }
+
+    /**
+     * I/O thread: queues a note the client played.
+     */
+    boolean offerNote(int midiKey, int velocity, long timestampNanos) {
+        return input.offer(midiKey, velocity, timestampNanos);
+    }
+
+    /**
+     * Worker thread: plays the simulated student's due notes and advances the game to {@code nowNanos}.
+     */
+    void tick(long nowNanos) {
+        if (student != null)
+            student.play(nowNanos, studentInput);
+        clock.tick(nowNanos);
+    }
+
+    boolean isFinished() {
+        return finished;
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    void close() {
+        closed = true;
+    }
+
+    int getJudgedCount() {
+        int count = 0;
+        for (GameEngine.Timing timing : GameEngine.Timing.values())
+            count += engine.getTimingCount(timing);
+        return count;
+    }
+
+    // Ticked by the shard with System.nanoTime(), the time base notes are stamped in.
+    private static final class WallClock implements GameClock {
+        private Listener listener;
+        private long nanos;
+
+        @Override
+        public void start(Listener listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public void stop() {
+            listener = null;
+        }
+
+        @Override
+        public long nanoTime() {
+            return nanos;
+        }
+
+        void tick(long nowNanos) {
+            double deltaSeconds = (nowNanos - nanos) / 1_000_000_000.0;
+            nanos = nowNanos;
+            Listener current = listener;
+            if (current != null)
+                current.onTick(deltaSeconds);
+        }
+    }
+}
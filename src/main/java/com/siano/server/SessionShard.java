@@ -0,0 +1,61 @@
+package com.siano.server;
+
+import com.siano.metrics.LatencyHistogram;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The sessions one worker ticks. A tick advances every session to the same
+ * instant and drops the ones that finished or were closed. Sessions are
+ * added by other threads, the server's song loader for clients and the
+ * caller of {@link ClassroomServer#simulate} for simulated students, which
+ * the copy-on-write list allows; everything else happens on the worker,
+ * which the scheduler never runs twice at once for the same shard.
+ */
+final class SessionShard implements Runnable {
+
+    private final List<Session> sessions = new CopyOnWriteArrayList<>();
+    private final LatencyHistogram tickTime = new LatencyHistogram("Tick");
+    private volatile long endedSessions = 0;
+    private volatile long judgedNotes = 0;
+
+    void add(Session session) {
+        sessions.add(session);
+    }
+
+    int size() {
+        return sessions.size();
+    }
+
+    LatencyHistogram getTickTime() {
+        return tickTime;
+    }
+
+    long getEndedSessions() {
+        return endedSessions;
+    }
+
+    long getJudgedNotes() {
+        return judgedNotes;
+    }
+
+    @Override
+    public void run() {
+        long now = System.nanoTime();
+        for (Session session : sessions) {
+            if (!session.isClosed() && !session.isFinished()) {
+                try {
+                    session.tick(now);
+                    continue;
+                } catch (RuntimeException e) {
+                    System.err.println("Session " + session.getName() + " failed: " + e);
+                }
+            }
+            sessions.remove(session);
+            endedSessions++;
+            judgedNotes += session.getJudgedCount();
+        }
+        tickTime.record(System.nanoTime() - now);
+    }
+}
@@ -0,0 +1,99 @@
+package com.siano.server;
+
+import com.siano.input.NoteEventQueue;
+import com.siano.utils.Song;
+import com.siano.utils.TempoMap;
+
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+/**
+ * A student playing a song in real time: every note is played at its time
+ * in the song, off by a random amount, and a few notes are skipped. The
+ * whole performance is drawn up front from the seed, so the same student
+ * always plays the same way; playing it is a cursor over sorted times and
+ * does not allocate.
+ */
+public final class SimulatedStudent {
+
+    private final int[] keys;
+    private final int[] velocities;
+    private final long[] offsetsNanos;
+    private long startNanos = Long.MIN_VALUE;
+    private int next = 0;
+
+    /**
+     * @param jitterMillis standard deviation of how far off each note is played
+     * @param missRate     share of notes left out
+     */
+    public SimulatedStudent(Song song, double playbackSpeed, double jitterMillis, double missRate, long seed) {
+        if (playbackSpeed <= 0)
+            throw new IllegalArgumentException("Playback speed must be positive: " + playbackSpeed);
+        SplittableRandom random = new SplittableRandom(seed);
+        Random gaussian = new Random(random.nextLong());
+        TempoMap tempoMap = song.getTempoMap();
+        int noteCount = song.getNoteCount();
+        long[] times = new long[noteCount];
+        boolean[] skipped = new boolean[noteCount];
+        int played = 0;
+        for (int note = 0; note < noteCount; note++) {
+            double micros = tempoMap.tickToMicros(song.startTick(note)) / playbackSpeed;
+            micros += gaussian.nextGaussian() * jitterMillis * 1000.0;
+            times[note] = Math.max(0, Math.round(micros * 1000.0));
+            skipped[note] = random.nextDouble() < missRate;
+            if (!skipped[note])
+                played++;
+        }
+
+        // Jitter can swap neighbouring notes, so the performance is sorted by time.
+        int[] order = IntStream.range(0, noteCount).filter(note -> !skipped[note]).boxed()
+                .sorted((a, b) -> Long.compare(times[a], times[b])).mapToInt(Integer::intValue).toArray();
+        keys = new int[played];
+        velocities = new int[played];
+        offsetsNanos = new long[played];
+        for (int i = 0; i < played; i++) {
+            keys[i] = song.key(order[i]);
+            velocities[i] = song.velocity(order[i]);
+            offsetsNanos[i] = times[order[i]];
+        }
+    }
+
+    /**
+     * @param startNanos time the song started at, on the clock later passed to {@link #play}
+     */
+    public void start(long startNanos) {
+        this.startNanos = startNanos;
+        this.next = 0;
+    }
+
+    public boolean isStarted() {
+        return startNanos != Long.MIN_VALUE;
+    }
+
+    /**
+     * Plays every note due by {@code nowNanos} that was not played yet,
+     * stamped with the time it was meant to be played at.
+     *
+     * @return number of notes played
+     */
+    public int play(long nowNanos, NoteEventQueue.Handler output) {
+        if (!isStarted())
+            return 0;
+        int count = 0;
+        while (next < keys.length && startNanos + offsetsNanos[next] <= nowNanos) {
+            output.onNoteEvent(keys[next], velocities[next], startNanos + offsetsNanos[next]);
+            next++;
+            count++;
+        }
+        return count;
+    }
+
+    public boolean isDone() {
+        return next >= keys.length;
+    }
+
+    public int getNoteCount() {
+        return keys.length;
+    }
+}
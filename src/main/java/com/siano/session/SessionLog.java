@@ -0,0 +1,34 @@
+package com.siano.session;
+
+/**
+ * Layout of a session log. After an 8-byte header the file is a sequence of
+ * records. Fixed records are {@link #RECORD_SIZE} bytes:
+ * {@code int type, int a, long b, double c, double d}. A song record is
+ * {@code int SONG, int playMode, int length} followed by {@code length}
+ * bytes of song data.
+ */
+final class SessionLog {
+
+    static final int MAGIC = 0x53494153; // "SIAS"
+    static final int VERSION = 4;
+    static final int HEADER_SIZE = 8;
+    static final int RECORD_SIZE = 32;
+    static final String EXTENSION = ".slog";
+
+    /** a = key | velocity << 16, b = input timestamp, c/d unused. */
+    static final int INPUT = 1;
+    /** b = clock time of the frame, c = delta seconds, d = playback speed. */
+    static final int FRAME = 2;
+    /** a = state ordinal, b = event index, c = tick. */
+    static final int STATE = 3;
+    static final int SONG = 4;
+    /** c = tick. */
+    static final int SEEK = 5;
+    /** c = loop start tick, d = loop end tick; both NaN when cleared. */
+    static final int LOOP = 6;
+    /** b = number of records the recorder dropped right before this one. */
+    static final int DROPPED = 7;
+
+    private SessionLog() {
+    }
+}
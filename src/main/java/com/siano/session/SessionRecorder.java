@@ -0,0 +1,224 @@
+package com.siano.session;
+
+import com.siano.GameEngine;
+import com.siano.utils.Song;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Writes everything a {@link GameEngine} does to an append-only session log
+ * that {@link SessionReplayer} can play back. The game loop only copies
+ * records into preallocated pages; a page is handed to a writer thread when
+ * it is full, has been filling for a quarter of a second or the song has
+ * finished, so a crash loses at most the last quarter second. If the writer falls so far
+ * behind that no page is free, records are dropped instead of stalling the
+ * game, and a marker with their number is logged once a page is free again.
+ */
+public class SessionRecorder implements GameEngine.Observer, Closeable {
+
+    private static final int PAGE_SIZE = 64 * 1024;
+    private static final int PAGE_COUNT = 8;
+    private static final long FLUSH_INTERVAL_NANOS = 250_000_000L;
+
+    private final FileChannel channel;
+    private final BlockingQueue<ByteBuffer> freePages = new ArrayBlockingQueue<>(PAGE_COUNT);
+    private final BlockingQueue<ByteBuffer> fullPages = new LinkedBlockingQueue<>();
+    private final AtomicLong droppedRecords = new AtomicLong();
+    private final Thread writerThread;
+    private volatile IOException writeError;
+
+    private ByteBuffer page;
+    private long pageStartNanos;
+    private int unloggedDrops = 0;
+    private boolean closed = false;
+
+    // Marks the end of the stream for the writer thread.
+    private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+    public SessionRecorder(Path file) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null)
+            Files.createDirectories(parent);
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        for (int i = 0; i < PAGE_COUNT; i++)
+            freePages.add(ByteBuffer.allocateDirect(PAGE_SIZE));
+
+        page = freePages.poll();
+        pageStartNanos = System.nanoTime();
+        page.putInt(SessionLog.MAGIC).putInt(SessionLog.VERSION);
+
+        writerThread = new Thread(this::writeLoop, "Session Recorder");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    public long getDroppedRecordCount() {
+        return droppedRecords.get();
+    }
+
+    /**
+     * Deletes all but the {@code keep} most recently modified session logs
+     * in {@code dir}.
+     */
+    public static void deleteOldLogs(Path dir, int keep) throws IOException {
+        if (!Files.isDirectory(dir))
+            return;
+        List<Path> logs;
+        try (Stream<Path> files = Files.list(dir)) {
+            logs = files.filter(file -> file.getFileName().toString().endsWith(SessionLog.EXTENSION)
+                    && Files.isRegularFile(file)).collect(Collectors.toList());
+        }
+        if (logs.size() <= keep)
+            return;
+        Map<Path, FileTime> modified = new HashMap<>();
+        for (Path log : logs)
+            modified.put(log, Files.getLastModifiedTime(log));
+        logs.sort(Comparator.comparing(modified::get));
+        for (Path log : logs.subList(0, logs.size() - keep))
+            Files.deleteIfExists(log);
+    }
+
+    @Override
+    public void onSongLoaded(Song song, GameEngine.PlayMode playMode) {
+        if (closed)
+            return;
+        // Rare and large: goes through its own heap page, in order with the rest.
+        ByteBuffer songPage = ByteBuffer.allocate(12 + song.serializedSize());
+        songPage.putInt(SessionLog.SONG).putInt(playMode.ordinal()).putInt(song.serializedSize());
+        song.writeTo(songPage);
+        songPage.flip();
+        submitPage();
+        fullPages.add(songPage);
+    }
+
+    @Override
+    public void onFrame(double deltaSeconds, double playbackSpeed, long frameNanos) {
+        record(SessionLog.FRAME, 0, frameNanos, deltaSeconds, playbackSpeed);
+    }
+
+    @Override
+    public void onInput(int midiKey, int velocity, long timestampNanos) {
+        record(SessionLog.INPUT, midiKey | velocity << 16, timestampNanos, 0, 0);
+    }
+
+    @Override
+    public void onStateChanged(GameEngine.State state, int eventIndex, double tick) {
+        record(SessionLog.STATE, state.ordinal(), eventIndex, tick, 0);
+        // No frames follow the end of a song to push its last page out.
+        if (state == GameEngine.State.FINISHED && !closed)
+            submitPage();
+    }
+
+    @Override
+    public void onSeek(double tick) {
+        record(SessionLog.SEEK, 0, 0, tick, 0);
+    }
+
+    @Override
+    public void onLoopChanged(double startTick, double endTick) {
+        record(SessionLog.LOOP, 0, 0, startTick, endTick);
+    }
+
+    private void record(int type, int a, long b, double c, double d) {
+        if (closed)
+            return;
+        long now = System.nanoTime();
+        // Room for a drop marker as well, so it always precedes the record.
+        if (page == null || page.remaining() < 2 * SessionLog.RECORD_SIZE
+                || now - pageStartNanos >= FLUSH_INTERVAL_NANOS) {
+            submitPage();
+            if (page == null) {
+                droppedRecords.incrementAndGet();
+                unloggedDrops++;
+                return;
+            }
+        }
+        logDrops();
+        page.putInt(type).putInt(a).putLong(b).putDouble(c).putDouble(d);
+    }
+
+    private void logDrops() {
+        if (unloggedDrops > 0) {
+            page.putInt(SessionLog.DROPPED).putInt(0).putLong(unloggedDrops).putDouble(0).putDouble(0);
+            unloggedDrops = 0;
+        }
+    }
+
+    // Hands the current page to the writer and takes a free one, if any.
+    private void submitPage() {
+        if (page != null && page.position() > 0) {
+            page.flip();
+            fullPages.offer(page);
+            page = null;
+        }
+        if (page == null) {
+            page = freePages.poll();
+            pageStartNanos = System.nanoTime();
+        }
+    }
+
+    private void writeLoop() {
+        try {
+            while (true) {
+                ByteBuffer buffer = fullPages.take();
+                if (buffer == END)
+                    break;
+                try {
+                    while (buffer.hasRemaining())
+                        channel.write(buffer);
+                } catch (IOException e) {
+                    writeError = e;
+                }
+                if (buffer.isDirect()) {
+                    buffer.clear();
+                    freePages.offer(buffer);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Flushes pending records and closes the log. Must be called from the
+     * thread that records.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        submitPage();
+        if (page != null && unloggedDrops > 0) {
+            logDrops();
+            submitPage();
+        }
+        fullPages.add(END);
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+        if (writeError != null)
+            throw writeError;
+    }
+}
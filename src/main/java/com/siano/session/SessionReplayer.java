@@ -0,0 +1,259 @@
+package com.siano.session;
+
+import com.siano.GameClock;
+import com.siano.GameEngine;
+import com.siano.utils.Song;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+/**
+ * Plays a session log back through a {@link GameEngine}: recorded input is
+ * fed to {@link GameEngine#handleInputNote(int, int, long)} and every
+ * recorded frame becomes an {@link GameEngine#update} with the same delta,
+ * speed and clock time, so the engine retraces the original session exactly. Recorded
+ * state changes are compared with the replayed ones and differences counted.
+ * Records the recorder had to drop are counted too; a replay past such a gap
+ * may no longer match the original.
+ * The replayer becomes the engine's observer; the engine should have no
+ * input queues or clock of its own while replaying.
+ */
+public class SessionReplayer {
+
+    private final ByteBuffer log;
+    private final GameEngine engine;
+    private Consumer<Song> onSongLoaded;
+
+    private double replayedSeconds = 0;
+    private long frameCount = 0;
+    private long inputCount = 0;
+    private long mismatchCount = 0;
+    private long droppedRecordCount = 0;
+    private GameClock clock;
+
+    // State changes the replayed engine made that have not been compared yet;
+    // one update can make several before their recorded counterparts are read.
+    private final int[] replayedStates = new int[64];
+    private final int[] replayedEventIndices = new int[64];
+    private int replayedStateHead = 0;
+    private int replayedStateCount = 0;
+
+    public SessionReplayer(Path file, GameEngine engine) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            log = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (log.remaining() < SessionLog.HEADER_SIZE || log.getInt() != SessionLog.MAGIC)
+            throw new IOException("Not a session log: " + file);
+        int version = log.getInt();
+        if (version != SessionLog.VERSION)
+            throw new IOException("Unsupported session log version " + version + ": " + file);
+        this.engine = engine;
+        engine.setObserver(new StateCollector());
+    }
+
+    /**
+     * Called before the engine gets a song from the log, e.g. to show it.
+     */
+    public void setOnSongLoaded(Consumer<Song> callback) {
+        this.onSongLoaded = callback;
+    }
+
+    public boolean isFinished() {
+        return log.remaining() < 8;
+    }
+
+    /**
+     * @return session time replayed so far, in seconds of recorded wall time
+     */
+    public double getReplayedSeconds() {
+        return replayedSeconds;
+    }
+
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    public long getInputCount() {
+        return inputCount;
+    }
+
+    /**
+     * @return recorded state changes the replayed engine did not reproduce
+     */
+    public long getMismatchCount() {
+        return mismatchCount;
+    }
+
+    /**
+     * @return records missing from the log because the recorder dropped them
+     */
+    public long getDroppedRecordCount() {
+        return droppedRecordCount;
+    }
+
+    /**
+     * Replays the rest of the log as fast as possible.
+     */
+    public void replayAll() {
+        while (step(Double.POSITIVE_INFINITY)) {
+        }
+    }
+
+    /**
+     * Replays the log at recorded speed, ticked by {@code clock} (for
+     * example the JavaFX pulse).
+     */
+    public void play(GameClock clock, Runnable onFinished) {
+        this.clock = clock;
+        double[] elapsed = { replayedSeconds };
+        clock.start(deltaSeconds -> {
+            elapsed[0] += deltaSeconds;
+            while (step(elapsed[0])) {
+            }
+            if (isFinished()) {
+                clock.stop();
+                if (onFinished != null)
+                    onFinished.run();
+            }
+        });
+    }
+
+    public void stop() {
+        if (clock != null)
+            clock.stop();
+    }
+
+    // Applies the next record unless it is a frame ending after untilSeconds.
+    private boolean step(double untilSeconds) {
+        if (isFinished())
+            return false;
+        int start = log.position();
+        int type = log.getInt();
+        if (type == SessionLog.SONG) {
+            if (log.remaining() < 8) {
+                log.position(log.limit());
+                return false;
+            }
+            GameEngine.PlayMode playMode = GameEngine.PlayMode.values()[log.getInt()];
+            int length = log.getInt();
+            if (length > log.remaining()) {
+                log.position(log.limit());
+                return false;
+            }
+            Song song = Song.readFrom(log.slice().limit(length));
+            log.position(log.position() + length);
+            if (onSongLoaded != null)
+                onSongLoaded.accept(song);
+            engine.setPlayMode(playMode);
+            engine.setNoteEvents(song);
+            return true;
+        }
+
+        if (log.remaining() < SessionLog.RECORD_SIZE - 4) {
+            // Cut off by a crash while writing.
+            log.position(log.limit());
+            return false;
+        }
+        int a = log.getInt();
+        long b = log.getLong();
+        double c = log.getDouble();
+        double d = log.getDouble();
+
+        switch (type) {
+            case SessionLog.INPUT -> {
+                inputCount++;
+                engine.handleInputNote(a & 0xFFFF, a >>> 16, b);
+            }
+            case SessionLog.FRAME -> {
+                if (replayedSeconds + c > untilSeconds) {
+                    log.position(start);
+                    return false;
+                }
+                replayedSeconds += c;
+                frameCount++;
+                if (engine.getPlaybackSpeed() != d)
+                    engine.setPlaybackSpeed(d);
+                engine.update(c, b);
+            }
+            case SessionLog.SEEK -> engine.seekToTick(c);
+            case SessionLog.DROPPED -> droppedRecordCount += b;
+            case SessionLog.LOOP -> {
+                if (Double.isNaN(c))
+                    engine.clearLoop();
+                else
+                    engine.setLoop(c, d);
+            }
+            case SessionLog.STATE -> {
+                if (replayedStateCount == 0) {
+                    mismatchCount++;
+                } else {
+                    int slot = replayedStateHead;
+                    replayedStateHead = (replayedStateHead + 1) % replayedStates.length;
+                    replayedStateCount--;
+                    if (replayedStates[slot] != a || replayedEventIndices[slot] != b)
+                        mismatchCount++;
+                }
+            }
+            default -> throw new IllegalStateException("Unknown session record type " + type);
+        }
+        return true;
+    }
+
+    private final class StateCollector implements GameEngine.Observer {
+        @Override
+        public void onStateChanged(GameEngine.State state, int eventIndex, double tick) {
+            if (replayedStateCount == replayedStates.length) {
+                // Never compared; count it as a difference and make room.
+                mismatchCount++;
+                replayedStateHead = (replayedStateHead + 1) % replayedStates.length;
+                replayedStateCount--;
+            }
+            int slot = (replayedStateHead + replayedStateCount) % replayedStates.length;
+            replayedStates[slot] = state.ordinal();
+            replayedEventIndices[slot] = eventIndex;
+            replayedStateCount++;
+        }
+
+        @Override
+        public void onSongLoaded(Song song, GameEngine.PlayMode playMode) {
+        }
+
+        @Override
+        public void onFrame(double deltaSeconds, double playbackSpeed, long frameNanos) {
+        }
+
+        @Override
+        public void onInput(int midiKey, int velocity, long timestampNanos) {
+        }
+
+        @Override
+        public void onSeek(double tick) {
+        }
+
+        @Override
+        public void onLoopChanged(double startTick, double endTick) {
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: SessionReplayer <session log>");
+            return;
+        }
+        SessionReplayer replayer = new SessionReplayer(Paths.get(args[0]), new GameEngine());
+        long start = System.nanoTime();
+        replayer.replayAll();
+        double millis = (System.nanoTime() - start) / 1_000_000.0;
+        System.out.printf("Replayed %.1f s of session (%d frames, %d inputs) in %.1f ms; %d state mismatches%n",
+                replayer.getReplayedSeconds(), replayer.getFrameCount(), replayer.getInputCount(), millis,
+                replayer.getMismatchCount());
+        if (replayer.getDroppedRecordCount() > 0)
+            System.out.println("The recording dropped " + replayer.getDroppedRecordCount()
+                    + " records; the replay may differ after them.");
+    }
+}
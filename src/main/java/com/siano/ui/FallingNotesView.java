@@ -1,27 +1,39 @@
 package com.siano.ui;
 
-import com.siano.utils.MidiReader;
+import com.siano.metrics.LatencyHistogram;
+import com.siano.utils.Song;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.layout.Pane;
+import javafx.scene.paint.Color;
+import javafx.scene.paint.Paint;
 import javafx.scene.shape.Line;
 import javafx.scene.shape.Rectangle;
 
-import java.util.ArrayList;
-import java.util.List;
-
 public class FallingNotesView extends Pane {
 
-    private static final double PIXELS_PER_TICK = 0.2;
+    private static final double PIXELS_PER_SECOND = 150;
     private static final double HIT_LINE_Y = 500;
 
-    private static final int START_NOTE = PianoKeyboard.START_NOTE;
-    private static final int KEY_COUNT = PianoKeyboard.KEY_COUNT;
-
-    private List<List<MidiReader.MidiNote>> allEvents;
-    private final List<Rectangle> activeNoteRects = new ArrayList<>();
     private double currentTick = 0;
     private double viewHeight = 600;
     private double viewWidth = 1000;
 
+    private final KeyboardLayout layout = new KeyboardLayout();
+    private final NoteProjection projection = new NoteProjection(layout, PIXELS_PER_SECOND);
+    private LatencyHistogram updateCost;
+    private final Canvas canvas;
+    private final GraphicsContext gc;
+
+    // Never drawn; it only lets CSS resolve the .note-rectangle look, which is
+    // cached here whenever the stylesheet changes instead of on every frame.
+    private final Rectangle noteStyleProbe = new Rectangle();
+    private Paint noteFill = Color.web("#64ffda");
+    private Paint noteStroke = Color.web("#004d40");
+    private double noteStrokeWidth = 1;
+    private double noteArcWidth = 5;
+    private double noteArcHeight = 5;
+
     public FallingNotesView(double width, double height) {
         this.viewWidth = width;
         this.viewHeight = height;
@@ -29,68 +41,86 @@ public class FallingNotesView extends Pane {
         getStyleClass().add("falling-notes-view");
 
         Line hitLine = new Line(0, height - 100, width, height - 100);
-    }
 
-    public void setEvents(List<List<MidiReader.MidiNote>> events) {
-        this.allEvents = events;
-        update(0);
+        canvas = new Canvas(width, height);
+        gc = canvas.getGraphicsContext2D();
+        layout.setWidth(width);
+        widthProperty().addListener((obs, old, val) -> resize(getWidth(), getHeight()));
+        heightProperty().addListener((obs, old, val) -> resize(getWidth(), getHeight()));
+
+        noteStyleProbe.getStyleClass().add("note-rectangle");
+        noteStyleProbe.setVisible(false);
+        noteStyleProbe.setManaged(false);
+        noteStyleProbe.fillProperty().addListener((obs, old, val) -> cacheNoteStyle());
+        noteStyleProbe.strokeProperty().addListener((obs, old, val) -> cacheNoteStyle());
+        noteStyleProbe.strokeWidthProperty().addListener((obs, old, val) -> cacheNoteStyle());
+        noteStyleProbe.arcWidthProperty().addListener((obs, old, val) -> cacheNoteStyle());
+        noteStyleProbe.arcHeightProperty().addListener((obs, old, val) -> cacheNoteStyle());
+
+        getChildren().addAll(canvas, noteStyleProbe);
     }
 
-    public void update(double currentTick) {
-        this.currentTick = currentTick;
-        getChildren().clear();
-        activeNoteRects.clear();
-
-        if (allEvents == null)
+    private void resize(double width, double height) {
+        if (width <= 0 || height <= 0)
             return;
+        viewWidth = width;
+        viewHeight = height;
+        canvas.setWidth(width);
+        canvas.setHeight(height);
+        layout.setWidth(width);
+        update(currentTick);
+    }
 
-        double whiteKeyCount = 0;
-        for (int i = 0; i < KEY_COUNT; i++) {
-            if (!isBlackKey(START_NOTE + i))
-                whiteKeyCount++;
-        }
-        double whiteKeyWidth = viewWidth / whiteKeyCount;
-
-        double targetY = viewHeight;
-
-        for (List<MidiReader.MidiNote> event : allEvents) {
-            for (MidiReader.MidiNote note : event) {
-                double x = 0;
-                double w = 0;
-
-                int whiteKeysBefore = 0;
-                for (int k = START_NOTE; k < note.key; k++) {
-                    if (!isBlackKey(k))
-                        whiteKeysBefore++;
-                }
+    private void cacheNoteStyle() {
+        noteFill = noteStyleProbe.getFill();
+        noteStroke = noteStyleProbe.getStroke();
+        noteStrokeWidth = noteStyleProbe.getStrokeWidth();
+        noteArcWidth = noteStyleProbe.getArcWidth();
+        noteArcHeight = noteStyleProbe.getArcHeight();
+        update(currentTick);
+    }
 
-                if (!isBlackKey(note.key)) {
-                    x = whiteKeysBefore * whiteKeyWidth;
-                    w = whiteKeyWidth;
-                } else {
-                    x = (whiteKeysBefore - 0.5) * whiteKeyWidth + (whiteKeyWidth * 0.2);
-                    w = whiteKeyWidth * 0.6;
-                }
+    /**
+     * Records how long each {@link #update} takes; may be null.
+     */
+    public void setUpdateCostHistogram(LatencyHistogram updateCost) {
+        this.updateCost = updateCost;
+    }
 
-                double distToStart = (note.startTick - currentTick) * PIXELS_PER_TICK;
-                double height = note.durationTicks * PIXELS_PER_TICK;
+    public void setEvents(Song song) {
+        projection.setSong(song);
+        update(0);
+    }
 
-                double rectBottom = targetY - distToStart;
-                double rectTop = rectBottom - height;
+    public void update(double currentTick) {
+        long start = System.nanoTime();
+        draw(currentTick);
+        if (updateCost != null)
+            updateCost.record(System.nanoTime() - start);
+    }
 
-                if (rectBottom < 0 || rectTop > viewHeight)
-                    continue;
+    private void draw(double currentTick) {
+        this.currentTick = currentTick;
+        gc.clearRect(0, 0, viewWidth, viewHeight);
 
-                Rectangle r = new Rectangle(x, rectTop, w, height);
-                r.getStyleClass().add("note-rectangle");
+        if (!projection.hasSong())
+            return;
 
-                getChildren().add(r);
-            }
+        int count = projection.project(currentTick, viewHeight, viewHeight);
+
+        gc.setFill(noteFill);
+        gc.setStroke(noteStroke);
+        gc.setLineWidth(noteStrokeWidth);
+        boolean stroke = noteStroke != null && noteStrokeWidth > 0;
+
+        for (int i = 0; i < count; i++) {
+            double x = projection.x(i);
+            double y = projection.y(i);
+            double w = projection.width(i);
+            double h = projection.height(i);
+            gc.fillRoundRect(x, y, w, h, noteArcWidth, noteArcHeight);
+            if (stroke)
+                gc.strokeRoundRect(x, y, w, h, noteArcWidth, noteArcHeight);
         }
     }
-
-    private boolean isBlackKey(int midiNote) {
-        int noteInOctave = midiNote % 12;
-        return noteInOctave == 1 || noteInOctave == 3 || noteInOctave == 6 || noteInOctave == 8 || noteInOctave == 10;
-    }
 }
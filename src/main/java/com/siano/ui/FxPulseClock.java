@@ -0,0 +1,51 @@
+package com.siano.ui;
+
+import com.siano.GameClock;
+import com.siano.metrics.LatencyHistogram;
+import javafx.animation.AnimationTimer;
+
+/**
+ * Ticks the game once per JavaFX pulse on the FX application thread.
+ */
+public class FxPulseClock implements GameClock {
+
+    private AnimationTimer timer;
+    private LatencyHistogram frameTimes;
+
+    /**
+     * Records the interval between pulses into {@code frameTimes}; may be null.
+     */
+    public void setFrameTimeHistogram(LatencyHistogram frameTimes) {
+        this.frameTimes = frameTimes;
+    }
+
+    @Override
+    public void start(Listener listener) {
+        stop();
+        timer = new AnimationTimer() {
+            private long lastTime = System.nanoTime();
+
+            @Override
+            public void handle(long now) {
+                if (frameTimes != null)
+                    frameTimes.record(now - lastTime);
+                listener.onTick((now - lastTime) / 1_000_000_000.0);
+                lastTime = now;
+            }
+        };
+        timer.start();
+    }
+
+    @Override
+    public void stop() {
+        if (timer != null) {
+            timer.stop();
+            timer = null;
+        }
+    }
+
+    @Override
+    public long nanoTime() {
+        return System.nanoTime();
+    }
+}
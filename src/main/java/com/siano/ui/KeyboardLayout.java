@@ -0,0 +1,79 @@
+package com.siano.ui;
+
+/**
+ * Horizontal key geometry for the 88-key range, shared by the keyboard and
+ * the falling notes so that both line up. Positions are recomputed only when
+ * the width changes; lookups are plain array reads.
+ */
+public class KeyboardLayout {
+
+    public static final int START_NOTE = 21;
+    public static final int END_NOTE = 108;
+    public static final int KEY_COUNT = END_NOTE - START_NOTE + 1;
+
+    private static final double BLACK_KEY_WIDTH_RATIO = 0.6;
+    private static final int WHITE_KEY_COUNT = countWhiteKeys();
+
+    private final double[] keyX = new double[KEY_COUNT];
+    private final double[] keyWidth = new double[KEY_COUNT];
+    private double width = -1;
+    private double whiteKeyWidth;
+
+    /**
+     * @return true if the layout was rebuilt, false if the width is unchanged
+     */
+    public boolean setWidth(double width) {
+        if (width == this.width)
+            return false;
+        this.width = width;
+        this.whiteKeyWidth = width / WHITE_KEY_COUNT;
+
+        double blackKeyWidth = whiteKeyWidth * BLACK_KEY_WIDTH_RATIO;
+        int whiteKeyIndex = 0;
+        for (int i = 0; i < KEY_COUNT; i++) {
+            if (!isBlackKey(START_NOTE + i)) {
+                keyX[i] = whiteKeyIndex * whiteKeyWidth;
+                keyWidth[i] = whiteKeyWidth;
+                whiteKeyIndex++;
+            } else {
+                keyX[i] = whiteKeyIndex * whiteKeyWidth - blackKeyWidth / 2;
+                keyWidth[i] = blackKeyWidth;
+            }
+        }
+        return true;
+    }
+
+    public double getWidth() {
+        return width;
+    }
+
+    public double getWhiteKeyWidth() {
+        return whiteKeyWidth;
+    }
+
+    public boolean contains(int midiNote) {
+        return midiNote >= START_NOTE && midiNote <= END_NOTE;
+    }
+
+    public double keyX(int midiNote) {
+        return keyX[midiNote - START_NOTE];
+    }
+
+    public double keyWidth(int midiNote) {
+        return keyWidth[midiNote - START_NOTE];
+    }
+
+    public static boolean isBlackKey(int midiNote) {
+        int noteInOctave = midiNote % 12;
+        return noteInOctave == 1 || noteInOctave == 3 || noteInOctave == 6 || noteInOctave == 8 || noteInOctave == 10;
+    }
+
+    private static int countWhiteKeys() {
+        int count = 0;
+        for (int note = START_NOTE; note <= END_NOTE; note++) {
+            if (!isBlackKey(note))
+                count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,39 @@
+package com.siano.ui;
+
+import com.siano.metrics.LatencyMetrics;
+import javafx.animation.Animation;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
+import javafx.scene.control.Label;
+import javafx.util.Duration;
+
+/**
+ * Small text panel with the live metrics. It refreshes a few times per
+ * second and only while shown, so hiding it costs nothing.
+ */
+public class MetricsOverlay extends Label {
+
+    private final LatencyMetrics metrics;
+    private final Timeline refresh;
+
+    public MetricsOverlay(LatencyMetrics metrics) {
+        this.metrics = metrics;
+        getStyleClass().add("metrics-overlay");
+        setMouseTransparent(true);
+        setVisible(false);
+
+        refresh = new Timeline(new KeyFrame(Duration.millis(250), e -> setText(metrics.format())));
+        refresh.setCycleCount(Animation.INDEFINITE);
+    }
+
+    public void toggle() {
+        boolean show = !isVisible();
+        setVisible(show);
+        if (show) {
+            setText(metrics.format());
+            refresh.play();
+        } else {
+            refresh.stop();
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.siano.ui;
+
+import com.siano.utils.NoteIntervalIndex;
+import com.siano.utils.Song;
+import com.siano.utils.TempoMap;
+
+import java.util.Arrays;
+
+/**
+ * Geometry of the falling notes, without any drawing: culls the song to the
+ * notes visible around the current tick and places each of them in view
+ * coordinates. Results live in reused arrays, so a frame does not allocate
+ * once they have grown to the largest visible count.
+ */
+public class NoteProjection {
+
+    private final KeyboardLayout layout;
+    private final double pixelsPerMicro;
+
+    private Song song;
+    private TempoMap tempoMap;
+    private NoteIntervalIndex noteIndex;
+
+    private double[] x = new double[64];
+    private double[] y = new double[64];
+    private double[] width = new double[64];
+    private double[] height = new double[64];
+    private int count = 0;
+
+    public NoteProjection(KeyboardLayout layout, double pixelsPerSecond) {
+        this.layout = layout;
+        this.pixelsPerMicro = pixelsPerSecond / 1_000_000.0;
+    }
+
+    public void setSong(Song song) {
+        this.song = song;
+        this.tempoMap = song.getTempoMap();
+        this.noteIndex = song.createIntervalIndex();
+        this.count = 0;
+    }
+
+    public boolean hasSong() {
+        return noteIndex != null;
+    }
+
+    /**
+     * Places the notes visible at {@code currentTick} in a view of the given
+     * height, with notes reaching {@code targetY} as they start.
+     *
+     * @return number of rectangles, readable through {@link #x} etc.
+     */
+    public int project(double currentTick, double viewHeight, double targetY) {
+        count = 0;
+        if (noteIndex == null)
+            return 0;
+
+        double currentMicros = tempoMap.tickToMicros(currentTick);
+        double fromMicros = currentMicros - (viewHeight - targetY) / pixelsPerMicro;
+        double toMicros = currentMicros + targetY / pixelsPerMicro;
+        long fromTick = (long) Math.floor(tempoMap.microsToTick(fromMicros));
+        long toTick = (long) Math.ceil(tempoMap.microsToTick(toMicros));
+        int visibleCount = noteIndex.query(fromTick, toTick);
+
+        for (int n = 0; n < visibleCount; n++) {
+            int note = noteIndex.result(n);
+            int key = song.key(note);
+            if (!layout.contains(key))
+                continue;
+
+            double startMicros = tempoMap.tickToMicros(song.startTick(note));
+            double endMicros = tempoMap.tickToMicros(song.endTick(note));
+            double distToStart = (startMicros - currentMicros) * pixelsPerMicro;
+            double rectHeight = (endMicros - startMicros) * pixelsPerMicro;
+
+            double rectBottom = targetY - distToStart;
+            double rectTop = rectBottom - rectHeight;
+
+            if (rectBottom < 0 || rectTop > viewHeight)
+                continue;
+
+            if (count == x.length)
+                grow();
+            x[count] = layout.keyX(key);
+            y[count] = rectTop;
+            width[count] = layout.keyWidth(key);
+            height[count] = rectHeight;
+            count++;
+        }
+        return count;
+    }
+
+    public int count() {
+        return count;
+    }
+
+    public double x(int i) {
+        return x[i];
+    }
+
+    public double y(int i) {
+        return y[i];
+    }
+
+    public double width(int i) {
+        return width[i];
+    }
+
+    public double height(int i) {
+        return height[i];
+    }
+
+    private void grow() {
+        int capacity = x.length * 2;
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        width = Arrays.copyOf(width, capacity);
+        height = Arrays.copyOf(height, capacity);
+    }
+}
@@ -1,148 +1,294 @@
 package com.siano.ui;
 
-import javafx.geometry.Pos;
+import javafx.animation.AnimationTimer;
+import javafx.scene.Scene;
 import javafx.scene.layout.Pane;
-import javafx.scene.layout.StackPane;
-import javafx.scene.paint.Color;
 import javafx.scene.shape.Rectangle;
-import javafx.scene.text.Text;
 
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
+import java.util.Arrays;
 
+/**
+ * The on-screen keyboard. Highlights are kept as a per-key bit mask and only
+ * written to the key nodes once per pulse, right before CSS is applied, so
+ * any number of changes to a key within a frame cost one style update.
+ * Timed effects (flashes and the success blink) are driven by a single
+ * ticker from their start time instead of one animation object per hit.
+ */
 public class PianoKeyboard extends Pane {
 
-    public static final int START_NOTE = 21;
-    public static final int END_NOTE = 108;
-    public static final int KEY_COUNT = END_NOTE - START_NOTE + 1;
+    public static final int START_NOTE = KeyboardLayout.START_NOTE;
+    public static final int END_NOTE = KeyboardLayout.END_NOTE;
+    public static final int KEY_COUNT = KeyboardLayout.KEY_COUNT;
 
-    private final Map<Integer, Rectangle> keyRectangles = new HashMap<>();
-    private final Set<String> highlightClasses = Set.of("key-target", "key-correct", "key-incorrect", "key-free-play");
+    private static final double BLACK_KEY_HEIGHT_RATIO = 0.6;
+
+    private static final String[] HIGHLIGHT_CLASSES = { "key-target", "key-correct", "key-incorrect",
+            "key-free-play" };
+    private static final int CORRECT = 1;
+
+    private static final long SUCCESS_DELAY_NANOS = 200_000_000L;
+    private static final long SUCCESS_FADE_NANOS = 150_000_000L;
+    private static final int SUCCESS_FADE_CYCLES = 4;
+    private static final long SUCCESS_NANOS = SUCCESS_DELAY_NANOS + SUCCESS_FADE_NANOS * SUCCESS_FADE_CYCLES;
+    private static final double SUCCESS_MIN_OPACITY = 0.3;
+
+    private final KeyboardLayout layout = new KeyboardLayout();
+    private final Rectangle[] keys = new Rectangle[KEY_COUNT];
+    private double keyHeight = -1;
+
+    // Highlights set by addStyle/removeStyle, and the ones currently on the nodes.
+    private final int[] persistentStyles = new int[KEY_COUNT];
+    private final int[] appliedStyles = new int[KEY_COUNT];
+    // Per highlight class and key: System.nanoTime() until which a flash shows it.
+    private final long[][] flashUntil = new long[HIGHLIGHT_CLASSES.length][KEY_COUNT];
+    private final long[] successStart = new long[KEY_COUNT];
+    private final boolean[] successActive = new boolean[KEY_COUNT];
+    private final double[] appliedOpacity = new double[KEY_COUNT];
+
+    private boolean dirty = false;
+    private int timedKeyCount = 0;
+    private final boolean[] timed = new boolean[KEY_COUNT];
+
+    private final Runnable flushTask = () -> flush(System.nanoTime());
+    private final AnimationTimer ticker = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            // The work happens in the pre-layout listener; this only keeps
+            // pulses coming while something is pending.
+            if (!dirty && timedKeyCount == 0)
+                stopTicker();
+        }
+    };
+    private boolean tickerRunning = false;
 
     public PianoKeyboard(double width, double height) {
         getStyleClass().add("piano-keyboard");
         setPrefSize(width, height);
-        drawKeyboard(width, height);
+        Arrays.fill(appliedOpacity, 1.0);
+        drawKeyboard();
+        layoutKeys(width, height);
+
+        widthProperty().addListener((obs, old, val) -> layoutKeys(getWidth(), getHeight()));
+        heightProperty().addListener((obs, old, val) -> layoutKeys(getWidth(), getHeight()));
+        sceneProperty().addListener((obs, old, val) -> moveFlushTask(old, val));
     }
 
-    private void drawKeyboard(double width, double height) {
+    private void drawKeyboard() {
         getChildren().clear();
-        keyRectangles.clear();
-
-        int whiteKeyCount = 0;
-        for (int i = 0; i < KEY_COUNT; i++) {
-            if (!isBlackKey(START_NOTE + i)) {
-                whiteKeyCount++;
-            }
-        }
-
-        double whiteKeyWidth = width / whiteKeyCount;
-        double blackKeyWidth = whiteKeyWidth * 0.6;
-        double blackKeyHeight = height * 0.6;
-
-        int whiteKeyIndex = 0;
 
         for (int i = 0; i < KEY_COUNT; i++) {
             int midiNote = START_NOTE + i;
             if (!isBlackKey(midiNote)) {
-                Rectangle whiteKey = new Rectangle(whiteKeyIndex * whiteKeyWidth, 0, whiteKeyWidth, height);
+                Rectangle whiteKey = new Rectangle();
                 whiteKey.getStyleClass().addAll("piano-key", "white-key");
-
-                if (midiNote % 12 == 0) {
-                }
-
                 getChildren().add(whiteKey);
-                keyRectangles.put(midiNote, whiteKey);
-                whiteKeyIndex++;
+                keys[i] = whiteKey;
             }
         }
 
-        whiteKeyIndex = 0;
         for (int i = 0; i < KEY_COUNT; i++) {
             int midiNote = START_NOTE + i;
             if (isBlackKey(midiNote)) {
-                double xPos = (whiteKeyIndex - 0.5) * whiteKeyWidth - (blackKeyWidth / 2) + (whiteKeyWidth / 2);
-
-                Rectangle blackKey = new Rectangle(xPos, 0, blackKeyWidth, blackKeyHeight);
+                Rectangle blackKey = new Rectangle();
                 blackKey.getStyleClass().addAll("piano-key", "black-key");
                 getChildren().add(blackKey);
-                keyRectangles.put(midiNote, blackKey);
-            } else {
-                whiteKeyIndex++;
+                keys[i] = blackKey;
             }
         }
     }
 
+    private void layoutKeys(double width, double height) {
+        if (width <= 0 || height <= 0)
+            return;
+        if (!layout.setWidth(width) && height == keyHeight)
+            return;
+        keyHeight = height;
+
+        for (int i = 0; i < KEY_COUNT; i++) {
+            int midiNote = START_NOTE + i;
+            Rectangle key = keys[i];
+            key.setX(layout.keyX(midiNote));
+            key.setWidth(layout.keyWidth(midiNote));
+            key.setHeight(isBlackKey(midiNote) ? height * BLACK_KEY_HEIGHT_RATIO : height);
+        }
+    }
+
+    private void moveFlushTask(Scene oldScene, Scene newScene) {
+        if (oldScene != null)
+            oldScene.removePreLayoutPulseListener(flushTask);
+        if (newScene != null)
+            newScene.addPreLayoutPulseListener(flushTask);
+    }
+
     private boolean isBlackKey(int midiNote) {
-        int noteInOctave = midiNote % 12;
-        return noteInOctave == 1 || noteInOctave == 3 || noteInOctave == 6 || noteInOctave == 8 || noteInOctave == 10;
+        return KeyboardLayout.isBlackKey(midiNote);
     }
 
     public void highlightKey(int midiNote, String styleClass) {
-        if (keyRectangles.containsKey(midiNote) && highlightClasses.contains(styleClass)) {
-            Rectangle key = keyRectangles.get(midiNote);
-            key.getStyleClass().removeAll(highlightClasses);
-            key.getStyleClass().add(styleClass);
-        }
+        int style = styleIndex(styleClass);
+        if (!isKey(midiNote) || style < 0)
+            return;
+        persistentStyles[midiNote - START_NOTE] = 1 << style;
+        changed();
     }
 
     public void clearHighlight(int midiNote) {
-        if (keyRectangles.containsKey(midiNote)) {
-            Rectangle key = keyRectangles.get(midiNote);
-            key.getStyleClass().removeAll(highlightClasses);
-        }
+        if (!isKey(midiNote))
+            return;
+        persistentStyles[midiNote - START_NOTE] = 0;
+        changed();
     }
 
     public void clearAllHighlights() {
-        for (Rectangle key : keyRectangles.values()) {
-            key.getStyleClass().removeAll(highlightClasses);
-        }
+        Arrays.fill(persistentStyles, 0);
+        changed();
     }
 
     public void addStyle(int midiNote, String styleClass) {
-        if (keyRectangles.containsKey(midiNote)) {
-            Rectangle key = keyRectangles.get(midiNote);
-            if (!key.getStyleClass().contains(styleClass)) {
-                key.getStyleClass().add(styleClass);
-                if (isBlackKey(midiNote))
-                    key.toFront();
-            }
-        }
+        int style = styleIndex(styleClass);
+        if (!isKey(midiNote) || style < 0)
+            return;
+        persistentStyles[midiNote - START_NOTE] |= 1 << style;
+        changed();
     }
 
     public void removeStyle(int midiNote, String styleClass) {
-        if (keyRectangles.containsKey(midiNote)) {
-            keyRectangles.get(midiNote).getStyleClass().remove(styleClass);
+        int style = styleIndex(styleClass);
+        if (!isKey(midiNote) || style < 0)
+            return;
+        persistentStyles[midiNote - START_NOTE] &= ~(1 << style);
+        changed();
+    }
+
+    /**
+     * Shows {@code styleClass} on the key for the given time; flashing the
+     * same key again extends it.
+     */
+    public void flash(int midiNote, String styleClass, long durationMillis) {
+        int style = styleIndex(styleClass);
+        if (!isKey(midiNote) || style < 0)
+            return;
+        int i = midiNote - START_NOTE;
+        flashUntil[style][i] = System.nanoTime() + durationMillis * 1_000_000L;
+        markTimed(i);
+        changed();
+    }
+
+    /**
+     * Lights the key as correct and blinks it; a new hit restarts the blink.
+     */
+    public void animateSuccess(int midiNote) {
+        if (!isKey(midiNote))
+            return;
+        int i = midiNote - START_NOTE;
+        successStart[i] = System.nanoTime();
+        successActive[i] = true;
+        markTimed(i);
+        changed();
+    }
+
+    private void markTimed(int i) {
+        if (!timed[i]) {
+            timed[i] = true;
+            timedKeyCount++;
+        }
+    }
+
+    private void changed() {
+        dirty = true;
+        if (!tickerRunning) {
+            tickerRunning = true;
+            ticker.start();
         }
     }
 
-    public void animateSuccess(int midiNote, Runnable onFinished) {
-        if (!keyRectangles.containsKey(midiNote))
+    private void stopTicker() {
+        if (tickerRunning) {
+            tickerRunning = false;
+            ticker.stop();
+        }
+    }
+
+    // Brings every key node in line with its state; runs once per pulse.
+    private void flush(long now) {
+        if (!dirty && timedKeyCount == 0) {
+            stopTicker();
             return;
-        Rectangle key = keyRectangles.get(midiNote);
+        }
+        dirty = false;
 
-        addStyle(midiNote, "key-correct");
+        for (int i = 0; i < KEY_COUNT; i++) {
+            int styles = persistentStyles[i];
+            double opacity = 1.0;
+            if (timed[i]) {
+                boolean stillTimed = false;
+                for (int s = 0; s < HIGHLIGHT_CLASSES.length; s++) {
+                    if (flashUntil[s][i] > now) {
+                        styles |= 1 << s;
+                        stillTimed = true;
+                    }
+                }
+                if (successActive[i]) {
+                    long elapsed = now - successStart[i];
+                    if (elapsed < SUCCESS_NANOS) {
+                        styles |= 1 << CORRECT;
+                        opacity = successOpacity(elapsed);
+                        stillTimed = true;
+                    } else {
+                        successActive[i] = false;
+                    }
+                }
+                if (!stillTimed) {
+                    timed[i] = false;
+                    timedKeyCount--;
+                }
+            }
+            applyStyles(i, styles);
+            if (opacity != appliedOpacity[i]) {
+                appliedOpacity[i] = opacity;
+                keys[i].setOpacity(opacity);
+            }
+        }
+    }
 
-        javafx.animation.Timeline timeline = new javafx.animation.Timeline();
-        timeline.getKeyFrames().add(new javafx.animation.KeyFrame(javafx.util.Duration.millis(200)));
+    // Fades 1 -> 0.3 -> 1 twice after a short delay, like an auto-reversing fade.
+    private static double successOpacity(long elapsed) {
+        if (elapsed < SUCCESS_DELAY_NANOS)
+            return 1.0;
+        double t = (double) (elapsed - SUCCESS_DELAY_NANOS) / SUCCESS_FADE_NANOS;
+        int cycle = (int) t;
+        double fraction = t - cycle;
+        double fadeOut = cycle % 2 == 0 ? fraction : 1 - fraction;
+        return 1.0 - (1.0 - SUCCESS_MIN_OPACITY) * fadeOut;
+    }
 
-        javafx.animation.FadeTransition fade = new javafx.animation.FadeTransition(javafx.util.Duration.millis(150),
-                key);
-        fade.setFromValue(1.0);
-        fade.setToValue(0.3);
-        fade.setCycleCount(4);
-        fade.setAutoReverse(true);
-        fade.setDelay(javafx.util.Duration.millis(200));
+    private void applyStyles(int i, int styles) {
+        int applied = appliedStyles[i];
+        if (styles == applied)
+            return;
+        Rectangle key = keys[i];
+        for (int s = 0; s < HIGHLIGHT_CLASSES.length; s++) {
+            int bit = 1 << s;
+            if ((applied & bit) != 0 && (styles & bit) == 0)
+                key.getStyleClass().remove(HIGHLIGHT_CLASSES[s]);
+            else if ((applied & bit) == 0 && (styles & bit) != 0)
+                key.getStyleClass().add(HIGHLIGHT_CLASSES[s]);
+        }
+        // A lit black key goes on top so its glow is not hidden by later black keys.
+        if (applied == 0 && isBlackKey(START_NOTE + i))
+            key.toFront();
+        appliedStyles[i] = styles;
+    }
 
-        fade.setOnFinished(e -> {
-            key.setOpacity(1.0);
-            removeStyle(midiNote, "key-correct");
-            if (onFinished != null)
-                onFinished.run();
-        });
+    private static boolean isKey(int midiNote) {
+        return midiNote >= START_NOTE && midiNote <= END_NOTE;
+    }
 
-        fade.play();
+    private static int styleIndex(String styleClass) {
+        for (int s = 0; s < HIGHLIGHT_CLASSES.length; s++) {
+            if (HIGHLIGHT_CLASSES[s].equals(styleClass))
+                return s;
+        }
+        return -1;
     }
 }
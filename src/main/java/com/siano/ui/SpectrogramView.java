@@ -0,0 +1,198 @@
+package com.siano.ui;
+
+import be.tarsos.dsp.util.fft.FFT;
+import com.siano.audio.SampleTap;
+import com.siano.utils.Song;
+import javafx.animation.AnimationTimer;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.PixelWriter;
+import javafx.scene.image.WritableImage;
+import javafx.scene.layout.Pane;
+import javafx.scene.paint.Color;
+
+/**
+ * Live spectrogram and input level of what the pitch detector hears, fed
+ * from a {@link SampleTap}. Every pulse drains the tap on the FX thread and
+ * turns each new hop of audio into one column of an image used as a ring:
+ * the column is written in place and the image is drawn in two pieces that
+ * unroll the ring, so nothing is rebuilt or scrolled. Rows follow the piano
+ * keys, and the last detected key is marked. The tap and the ticker only run
+ * while the view is shown.
+ */
+public class SpectrogramView extends Pane {
+
+    private static final int FFT_SIZE = 4096;
+    private static final int COLUMN_SAMPLES = 512;
+    private static final int LOWEST_KEY = 21;
+    private static final int HIGHEST_KEY = 108;
+    private static final double FLOOR_DB = -90;
+    private static final double LEVEL_WIDTH = 10;
+
+    private final SampleTap tap;
+    private final int columns;
+    private final int rows;
+
+    private final FFT fft = new FFT(FFT_SIZE);
+    private final float[] window = new float[FFT_SIZE];
+    private final float[] history = new float[FFT_SIZE];
+    private final float[] transform = new float[FFT_SIZE];
+    private final float[] magnitudes = new float[FFT_SIZE / 2];
+    private final float[] incoming = new float[8192];
+    private final double reference;
+    private int historyPosition = 0;
+    private int pendingSamples = 0;
+    private double levelSum = 0;
+    private double levelDb = FLOOR_DB;
+
+    private final int[] rowBinFrom;
+    private final int[] rowBinTo;
+    private final int[] columnPixels;
+    private final int[] palette = new int[256];
+    private final WritableImage image;
+    private final PixelWriter pixelWriter;
+    private int columnX = 0;
+
+    private final Canvas canvas;
+    private final GraphicsContext gc;
+    private int shownKey = -1;
+    private String keyText = "";
+
+    private final AnimationTimer ticker = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            drain();
+            draw();
+        }
+    };
+
+    public SpectrogramView(SampleTap tap, float sampleRate, int width, int height) {
+        this.tap = tap;
+        this.columns = width;
+        this.rows = height;
+        getStyleClass().add("spectrogram-view");
+        setMouseTransparent(true);
+        setVisible(false);
+
+        double windowSum = 0;
+        for (int i = 0; i < FFT_SIZE; i++) {
+            window[i] = (float) (0.5 - 0.5 * Math.cos(2 * Math.PI * i / (FFT_SIZE - 1)));
+            windowSum += window[i];
+        }
+        // A full-scale sine peaks at half the window's sum.
+        reference = windowSum / 2;
+
+        rowBinFrom = new int[rows];
+        rowBinTo = new int[rows];
+        double keysPerRow = (HIGHEST_KEY - LOWEST_KEY + 1.0) / rows;
+        for (int row = 0; row < rows; row++) {
+            double topKey = HIGHEST_KEY + 0.5 - row * keysPerRow;
+            int from = (int) (keyToFrequency(topKey - keysPerRow) * FFT_SIZE / sampleRate);
+            int to = (int) Math.ceil(keyToFrequency(topKey) * FFT_SIZE / sampleRate);
+            rowBinFrom[row] = Math.min(from, magnitudes.length - 1);
+            rowBinTo[row] = Math.min(Math.max(to, from + 1), magnitudes.length);
+        }
+
+        buildPalette();
+        columnPixels = new int[rows];
+        image = new WritableImage(columns, rows);
+        pixelWriter = image.getPixelWriter();
+
+        canvas = new Canvas(columns + LEVEL_WIDTH, rows);
+        gc = canvas.getGraphicsContext2D();
+        gc.setImageSmoothing(false);
+        setPrefSize(columns + LEVEL_WIDTH, rows);
+        setMaxSize(columns + LEVEL_WIDTH, rows);
+        getChildren().add(canvas);
+    }
+
+    public void toggle() {
+        boolean show = !isVisible();
+        setVisible(show);
+        tap.setEnabled(show);
+        if (show)
+            ticker.start();
+        else
+            ticker.stop();
+    }
+
+    private void drain() {
+        int count;
+        while ((count = tap.read(incoming)) > 0) {
+            for (int i = 0; i < count; i++) {
+                float sample = incoming[i];
+                history[historyPosition] = sample;
+                historyPosition = (historyPosition + 1) & (FFT_SIZE - 1);
+                levelSum += sample * sample;
+                if (++pendingSamples == COLUMN_SAMPLES) {
+                    levelDb = Math.max(FLOOR_DB, 10 * Math.log10(levelSum / COLUMN_SAMPLES + 1e-12));
+                    levelSum = 0;
+                    pendingSamples = 0;
+                    writeColumn();
+                }
+            }
+        }
+    }
+
+    private void writeColumn() {
+        for (int i = 0; i < FFT_SIZE; i++)
+            transform[i] = history[(historyPosition + i) & (FFT_SIZE - 1)] * window[i];
+        fft.forwardTransform(transform);
+        fft.modulus(transform, magnitudes);
+
+        for (int row = 0; row < rows; row++) {
+            float peak = 0;
+            for (int bin = rowBinFrom[row]; bin < rowBinTo[row]; bin++)
+                peak = Math.max(peak, magnitudes[bin]);
+            double db = 20 * Math.log10(peak / reference + 1e-12);
+            int shade = (int) ((db - FLOOR_DB) / -FLOOR_DB * 255);
+            columnPixels[row] = palette[Math.max(0, Math.min(255, shade))];
+        }
+        pixelWriter.setPixels(columnX, 0, 1, rows, PixelFormat.getIntArgbInstance(), columnPixels, 0, 1);
+        columnX = (columnX + 1) % columns;
+    }
+
+    private void draw() {
+        // Oldest columns start right after the one written last.
+        gc.drawImage(image, columnX, 0, columns - columnX, rows, 0, 0, columns - columnX, rows);
+        if (columnX > 0)
+            gc.drawImage(image, 0, 0, columnX, rows, columns - columnX, 0, columnX, rows);
+
+        double level = (levelDb - FLOOR_DB) / -FLOOR_DB;
+        gc.setFill(Color.BLACK);
+        gc.fillRect(columns, 0, LEVEL_WIDTH, rows);
+        gc.setFill(levelDb > -6 ? Color.RED : Color.LIME);
+        gc.fillRect(columns, rows * (1 - level), LEVEL_WIDTH, rows * level);
+
+        int key = tap.getDetectedKey();
+        if (key != shownKey) {
+            shownKey = key;
+            keyText = key >= 0 ? Song.noteNameOfKey(key) : "";
+        }
+        if (key >= LOWEST_KEY && key <= HIGHEST_KEY) {
+            double y = (HIGHEST_KEY + 0.5 - key) * rows / (HIGHEST_KEY - LOWEST_KEY + 1.0);
+            gc.setFill(Color.WHITE);
+            gc.fillRect(0, y - 1, 6, 2);
+            gc.fillText(keyText, 8, Math.max(12, Math.min(rows - 4, y + 4)));
+        }
+    }
+
+    // Black through blue and magenta to yellow.
+    private void buildPalette() {
+        int[][] stops = { { 0, 0, 0 }, { 20, 20, 120 }, { 170, 30, 140 }, { 250, 140, 30 }, { 255, 255, 180 } };
+        for (int i = 0; i < palette.length; i++) {
+            double position = i / 255.0 * (stops.length - 1);
+            int stop = Math.min(stops.length - 2, (int) position);
+            double t = position - stop;
+            int r = (int) (stops[stop][0] + t * (stops[stop + 1][0] - stops[stop][0]));
+            int g = (int) (stops[stop][1] + t * (stops[stop + 1][1] - stops[stop][1]));
+            int b = (int) (stops[stop][2] + t * (stops[stop + 1][2] - stops[stop][2]));
+            palette[i] = 0xFF000000 | r << 16 | g << 8 | b;
+        }
+    }
+
+    private static double keyToFrequency(double key) {
+        return 440.0 * Math.pow(2, (key - 69) / 12.0);
+    }
+}
@@ -0,0 +1,77 @@
+package com.siano.utils;
+
+/**
+ * The notes of a song grouped by key: for every MIDI key, the notes that
+ * play it in start order, packed into one array with per-key offsets. A
+ * played key is matched against its own notes with a binary search instead
+ * of a scan over the whole song.
+ */
+public final class KeyNoteIndex {
+
+    private static final int KEY_COUNT = 128;
+
+    private final int[] offsets = new int[KEY_COUNT + 1];
+    private final int[] notes;
+    private final long[] startTicks;
+
+    KeyNoteIndex(Song song) {
+        int noteCount = song.getNoteCount();
+        for (int note = 0; note < noteCount; note++)
+            offsets[song.key(note) + 1]++;
+        for (int key = 0; key < KEY_COUNT; key++)
+            offsets[key + 1] += offsets[key];
+
+        // Notes are already in start order, so a stable counting pass keeps
+        // each key's run sorted.
+        notes = new int[noteCount];
+        startTicks = new long[noteCount];
+        int[] fill = offsets.clone();
+        for (int note = 0; note < noteCount; note++) {
+            int position = fill[song.key(note)]++;
+            notes[position] = note;
+            startTicks[position] = song.startTick(note);
+        }
+    }
+
+    /**
+     * @return first position of {@code key}'s notes
+     */
+    public int keyStart(int key) {
+        return offsets[key];
+    }
+
+    /**
+     * @return position after the last of {@code key}'s notes
+     */
+    public int keyEnd(int key) {
+        return offsets[key + 1];
+    }
+
+    /**
+     * @return index of the note at {@code position}, as used by {@link Song}
+     */
+    public int note(int position) {
+        return notes[position];
+    }
+
+    public long startTick(int position) {
+        return startTicks[position];
+    }
+
+    /**
+     * @return position of {@code key}'s first note starting at or after
+     *         {@code tick}, or {@link #keyEnd} if there is none
+     */
+    public int firstAtOrAfter(int key, double tick) {
+        int lo = offsets[key];
+        int hi = offsets[key + 1];
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (startTicks[mid] < tick)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+}
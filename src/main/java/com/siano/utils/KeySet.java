@@ -0,0 +1,131 @@
+package com.siano.utils;
+
+/**
+ * Mutable set of MIDI keys 0-127 stored as two 64-bit words. Every
+ * operation is a few bit instructions and nothing is boxed or allocated;
+ * iterate with {@code for (int k = set.next(0); k >= 0; k = set.next(k + 1))}.
+ */
+public final class KeySet {
+
+    private long low;
+    private long high;
+
+    public KeySet() {
+    }
+
+    public KeySet(long low, long high) {
+        this.low = low;
+        this.high = high;
+    }
+
+    /**
+     * @return true if the key was not in the set
+     */
+    public boolean add(int key) {
+        checkKey(key);
+        if (key < 64) {
+            long before = low;
+            low |= 1L << key;
+            return low != before;
+        }
+        long before = high;
+        high |= 1L << (key - 64);
+        return high != before;
+    }
+
+    /**
+     * @return true if the key was in the set
+     */
+    public boolean remove(int key) {
+        if (key < 0 || key > 127)
+            return false;
+        if (key < 64) {
+            long before = low;
+            low &= ~(1L << key);
+            return low != before;
+        }
+        long before = high;
+        high &= ~(1L << (key - 64));
+        return high != before;
+    }
+
+    public boolean contains(int key) {
+        if (key < 0 || key > 127)
+            return false;
+        return key < 64 ? (low & (1L << key)) != 0 : (high & (1L << (key - 64))) != 0;
+    }
+
+    public boolean isEmpty() {
+        return (low | high) == 0;
+    }
+
+    public int size() {
+        return Long.bitCount(low) + Long.bitCount(high);
+    }
+
+    public void clear() {
+        low = 0;
+        high = 0;
+    }
+
+    public void copyFrom(KeySet other) {
+        low = other.low;
+        high = other.high;
+    }
+
+    /**
+     * @return the smallest key in the set that is {@code >= fromKey}, or -1
+     */
+    public int next(int fromKey) {
+        if (fromKey < 64) {
+            long word = low & (-1L << Math.max(fromKey, 0));
+            if (word != 0)
+                return Long.numberOfTrailingZeros(word);
+            fromKey = 64;
+        }
+        if (fromKey > 127)
+            return -1;
+        long word = high & (-1L << (fromKey - 64));
+        return word != 0 ? 64 + Long.numberOfTrailingZeros(word) : -1;
+    }
+
+    /**
+     * @return bits for keys 0-63
+     */
+    public long low() {
+        return low;
+    }
+
+    /**
+     * @return bits for keys 64-127
+     */
+    public long high() {
+        return high;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof KeySet other && other.low == low && other.high == high;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(low) * 31 + Long.hashCode(high);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder("[");
+        for (int key = next(0); key >= 0; key = next(key + 1)) {
+            if (text.length() > 1)
+                text.append(", ");
+            text.append(key);
+        }
+        return text.append(']').toString();
+    }
+
+    private static void checkKey(int key) {
+        if (key < 0 || key > 127)
+            throw new IllegalArgumentException("MIDI key out of range: " + key);
+    }
+}
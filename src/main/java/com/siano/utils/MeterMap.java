@@ -0,0 +1,114 @@
+package com.siano.utils;
+
+import java.util.Arrays;
+
+/**
+ * Time signatures of a song, used to count measures. Each segment starts a
+ * new measure at its tick and keeps a fixed measure length until the next
+ * change; before the first change the song is in 4/4.
+ */
+public final class MeterMap {
+
+    private final int resolution;
+    private final long[] segmentTicks;
+    private final int[] numerators;
+    private final int[] denominators;
+    private final int[] firstMeasures;
+
+    /**
+     * @param ticks        ticks at which the meter changes, sorted ascending
+     * @param numerators   beats per measure from each of those ticks on
+     * @param denominators beat unit (4 = quarter note) from each of those ticks on
+     */
+    MeterMap(int resolution, long[] ticks, int[] numerators, int[] denominators) {
+        this.resolution = resolution;
+
+        int count = 0;
+        long[] segTicks = new long[ticks.length + 1];
+        int[] segNum = new int[ticks.length + 1];
+        int[] segDen = new int[ticks.length + 1];
+        segTicks[0] = 0;
+        segNum[0] = 4;
+        segDen[0] = 4;
+        count++;
+        for (int i = 0; i < ticks.length; i++) {
+            if (ticks[i] != segTicks[count - 1])
+                segTicks[count++] = ticks[i];
+            segNum[count - 1] = numerators[i];
+            segDen[count - 1] = denominators[i];
+        }
+        this.segmentTicks = Arrays.copyOf(segTicks, count);
+        this.numerators = Arrays.copyOf(segNum, count);
+        this.denominators = Arrays.copyOf(segDen, count);
+
+        this.firstMeasures = new int[count];
+        for (int i = 1; i < count; i++) {
+            long length = segmentTicks[i] - segmentTicks[i - 1];
+            long perMeasure = ticksPerMeasure(i - 1);
+            firstMeasures[i] = firstMeasures[i - 1] + (int) ((length + perMeasure - 1) / perMeasure);
+        }
+    }
+
+    public static MeterMap constant(int resolution) {
+        return new MeterMap(resolution, new long[0], new int[0], new int[0]);
+    }
+
+    public int getSegmentCount() {
+        return segmentTicks.length;
+    }
+
+    public long segmentTick(int segment) {
+        return segmentTicks[segment];
+    }
+
+    public int numerator(int segment) {
+        return numerators[segment];
+    }
+
+    public int denominator(int segment) {
+        return denominators[segment];
+    }
+
+    public long ticksPerMeasure(int segment) {
+        return Math.max(1, (long) resolution * 4 * numerators[segment] / denominators[segment]);
+    }
+
+    /**
+     * @return zero-based measure containing {@code tick}
+     */
+    public int measureAt(double tick) {
+        int segment = segmentForTick(tick);
+        long offset = (long) Math.floor(tick - segmentTicks[segment]);
+        return firstMeasures[segment] + (int) Math.max(0, offset / ticksPerMeasure(segment));
+    }
+
+    /**
+     * @return tick at which the zero-based {@code measure} starts
+     */
+    public long measureStartTick(int measure) {
+        int lo = 0;
+        int hi = firstMeasures.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (firstMeasures[mid] <= measure)
+                lo = mid;
+            else
+                hi = mid - 1;
+        }
+        long start = segmentTicks[lo] + (long) Math.max(0, measure - firstMeasures[lo]) * ticksPerMeasure(lo);
+        return lo + 1 < segmentTicks.length ? Math.min(start, segmentTicks[lo + 1]) : start;
+    }
+
+    private int segmentForTick(double tick) {
+        int lo = 0;
+        int hi = segmentTicks.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (segmentTicks[mid] <= tick)
+                lo = mid;
+            else
+                hi = mid - 1;
+        }
+        return lo;
+    }
+}
@@ -1,79 +1,227 @@
 package com.siano.utils;
 
-import javax.sound.midi.*;
-import java.io.File;
+import javax.sound.midi.InvalidMidiDataException;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Comparator;
-import java.util.List;
-import java.util.Map;
-import java.util.stream.Collectors;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 
+/**
+ * Reads note data straight out of a Standard MIDI File. The file is memory
+ * mapped and decoded in one pass per track; note-on/off pairs go directly
+ * into a {@link Song.Builder} without creating per-event objects.
+ */
 public class MidiReader {
 
-    public static class MidiNote {
-        public final int key;
-        public final String noteName;
-        public final int velocity;
-        public final long startTick;
-        public final long endTick;
-        public final long durationTicks;
-        private static final String[] NOTE_NAMES = { "Do", "Do#", "Re", "Re#", "Mi", "Fa", "Fa#", "Sol", "Sol#", "La",
-                "La#", "Si" };
-
-        public MidiNote(int key, int velocity, long startTick, long endTick) {
-            this.key = key;
-            this.velocity = velocity;
-            this.startTick = startTick;
-            this.endTick = endTick;
-            this.durationTicks = endTick - startTick;
-            this.noteName = NOTE_NAMES[key % 12] + (key / 12 - 1);
+    private static final int HEADER_CHUNK = 0x4D546864; // "MThd"
+    private static final int TRACK_CHUNK = 0x4D54726B; // "MTrk"
+
+    private static final int NOTE_OFF = 0x80;
+    private static final int NOTE_ON = 0x90;
+    private static final int PROGRAM_CHANGE = 0xC0;
+    private static final int CHANNEL_PRESSURE = 0xD0;
+    private static final int SYSEX = 0xF0;
+    private static final int SYSEX_ESCAPE = 0xF7;
+    private static final int SONG_POSITION = 0xF2;
+    private static final int SONG_SELECT = 0xF3;
+    private static final int MTC_QUARTER_FRAME = 0xF1;
+    private static final int META = 0xFF;
+    private static final int META_END_OF_TRACK = 0x2F;
+    private static final int META_SET_TEMPO = 0x51;
+    private static final int META_TIME_SIGNATURE = 0x58;
+
+    public Song readNoteEvents(String filePath) throws InvalidMidiDataException, IOException {
+        return readNoteEvents(Paths.get(filePath));
+    }
+
+    public Song readNoteEvents(Path path) throws InvalidMidiDataException, IOException {
+        Song song;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            song = parse(buffer);
         }
+        System.out.println("Successfully read " + song.getEventCount() + " note events from MIDI file: " + path);
+        return song;
+    }
 
-        @Override
-        public String toString() {
-            return "Note: " + noteName + " (Key: " + key + ")";
+    /**
+     * Decodes a complete Standard MIDI File held in {@code buffer}, reading
+     * by absolute index; the buffer's position is not changed.
+     */
+    public Song parse(ByteBuffer buffer) throws InvalidMidiDataException {
+        try {
+            if (buffer.remaining() < 14 || buffer.getInt(0) != HEADER_CHUNK)
+                throw new InvalidMidiDataException("Not a Standard MIDI File");
+            int headerLength = buffer.getInt(4);
+            if (headerLength < 6)
+                throw new InvalidMidiDataException("Invalid MIDI header length: " + headerLength);
+            int division = buffer.getShort(12) & 0xFFFF;
+            int resolution = toPulsesPerQuarter(division);
+            boolean honorTempo = (division & 0x8000) == 0;
+
+            Song.Builder builder = new Song.Builder().resolution(resolution);
+            long[] activeStart = new long[16 * 128];
+            int[] activeVelocity = new int[16 * 128];
+
+            int pos = 8 + headerLength;
+            int limit = buffer.limit();
+            while (pos + 8 <= limit) {
+                int chunkType = buffer.getInt(pos);
+                int chunkLength = buffer.getInt(pos + 4);
+                pos += 8;
+                if (chunkLength < 0 || pos + chunkLength > limit)
+                    throw new InvalidMidiDataException("Truncated chunk at offset " + (pos - 8));
+                if (chunkType == TRACK_CHUNK) {
+                    Arrays.fill(activeStart, -1);
+                    parseTrack(buffer, pos, pos + chunkLength, builder, honorTempo, activeStart, activeVelocity);
+                }
+                pos += chunkLength;
+            }
+            return builder.build();
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new InvalidMidiDataException("Truncated MIDI data");
         }
     }
 
-    public List<List<MidiNote>> readNoteEvents(String filePath) throws InvalidMidiDataException, IOException {
-        Sequence sequence = MidiSystem.getSequence(new File(filePath));
-
-        List<MidiNote> allNotes = new ArrayList<>();
-        for (Track track : sequence.getTracks()) {
-            Map<Integer, MidiNote> activeNotes = new java.util.HashMap<>();
-            for (int i = 0; i < track.size(); i++) {
-                MidiEvent event = track.get(i);
-                MidiMessage message = event.getMessage();
-                if (message instanceof ShortMessage) {
-                    ShortMessage sm = (ShortMessage) message;
-                    int key = sm.getData1();
-                    int velocity = sm.getData2();
-                    long tick = event.getTick();
-
-                    if (sm.getCommand() == 0x90 && velocity > 0) {
-                        activeNotes.put(key, new MidiNote(key, velocity, tick, -1));
-                    } else if (sm.getCommand() == 0x80 || (sm.getCommand() == 0x90 && velocity == 0)) {
-                        if (activeNotes.containsKey(key)) {
-                            MidiNote note = activeNotes.remove(key);
-                            allNotes.add(new MidiNote(key, note.velocity, note.startTick, tick));
-                        }
-                    }
+    private void parseTrack(ByteBuffer buffer, int start, int end, Song.Builder builder, boolean honorTempo,
+            long[] activeStart, int[] activeVelocity) throws InvalidMidiDataException {
+        TrackCursor in = new TrackCursor(buffer, start, end);
+        long tick = 0;
+        int runningStatus = 0;
+
+        while (in.pos < end) {
+            tick += in.readVariableLength();
+
+            int status = in.peek();
+            if (status < 0x80) {
+                if (runningStatus == 0)
+                    throw new InvalidMidiDataException("Data byte without running status at offset " + in.pos);
+                status = runningStatus;
+            } else {
+                in.pos++;
+            }
+
+            if (status == META) {
+                int type = in.read();
+                int length = in.readLength();
+                if (type == META_SET_TEMPO && length == 3 && honorTempo) {
+                    int microsPerQuarter = (in.read() << 16) | (in.read() << 8) | in.read();
+                    if (microsPerQuarter > 0)
+                        builder.tempo(tick, microsPerQuarter);
+                } else if (type == META_TIME_SIGNATURE && length >= 2) {
+                    int numerator = in.read();
+                    int denominatorPower = in.read();
+                    in.skip(length - 2);
+                    if (numerator > 0 && denominatorPower < 8)
+                        builder.meter(tick, numerator, 1 << denominatorPower);
+                } else {
+                    in.skip(length);
+                }
+                if (type == META_END_OF_TRACK)
+                    return;
+                continue;
+            }
+            if (status == SYSEX || status == SYSEX_ESCAPE) {
+                in.skip(in.readLength());
+                continue;
+            }
+            if (status >= 0xF0) {
+                // System common/real-time messages do not belong in a file; skip them with their data.
+                if (status == SONG_POSITION)
+                    in.skip(2);
+                else if (status == MTC_QUARTER_FRAME || status == SONG_SELECT)
+                    in.skip(1);
+                continue;
+            }
+
+            runningStatus = status;
+            int command = status & 0xF0;
+            int data1 = in.read() & 0x7F;
+            if (command == PROGRAM_CHANGE || command == CHANNEL_PRESSURE)
+                continue;
+            int data2 = in.read() & 0x7F;
+
+            int slot = ((status & 0x0F) << 7) | data1;
+            if (command == NOTE_ON && data2 > 0) {
+                activeStart[slot] = tick;
+                activeVelocity[slot] = data2;
+            } else if (command == NOTE_OFF || command == NOTE_ON) {
+                if (activeStart[slot] >= 0) {
+                    builder.addNote(data1, activeVelocity[slot], activeStart[slot], tick);
+                    activeStart[slot] = -1;
                 }
             }
         }
+    }
 
-        allNotes.sort(Comparator.comparingLong(n -> n.startTick));
+    // SMPTE divisions are mapped onto the default 120 BPM so that ticks still
+    // advance at the file's real rate; tempo events do not apply to them.
+    private int toPulsesPerQuarter(int division) throws InvalidMidiDataException {
+        if ((division & 0x8000) == 0) {
+            if (division == 0)
+                throw new InvalidMidiDataException("MIDI file has a zero time division");
+            return division;
+        }
+        int framesPerSecond = -(byte) (division >> 8);
+        int ticksPerFrame = division & 0xFF;
+        return Math.max(1, framesPerSecond * ticksPerFrame / 2);
+    }
 
-        Map<Long, List<MidiNote>> groupedByTick = allNotes.stream()
-                .collect(Collectors.groupingBy(n -> n.startTick));
+    private static final class TrackCursor {
+        private final ByteBuffer buffer;
+        private final int end;
+        private int pos;
+
+        TrackCursor(ByteBuffer buffer, int pos, int end) {
+            this.buffer = buffer;
+            this.pos = pos;
+            this.end = end;
+        }
+
+        int peek() throws InvalidMidiDataException {
+            if (pos >= end)
+                throw new InvalidMidiDataException("Event runs past the end of its track at offset " + pos);
+            return buffer.get(pos) & 0xFF;
+        }
 
-        List<List<MidiNote>> noteEvents = new ArrayList<>(groupedByTick.values());
-        if (!noteEvents.isEmpty()) {
-            noteEvents.sort(Comparator.comparingLong(event -> event.get(0).startTick));
+        int read() throws InvalidMidiDataException {
+            int b = peek();
+            pos++;
+            return b;
         }
 
-        System.out.println("Successfully read " + noteEvents.size() + " note events from MIDI file: " + filePath);
-        return noteEvents;
+        // At most four bytes, so the value fits in 28 bits and never turns negative.
+        int readVariableLength() throws InvalidMidiDataException {
+            int value = 0;
+            for (int i = 0; i < 4; i++) {
+                int b = read();
+                value = (value << 7) | (b & 0x7F);
+                if ((b & 0x80) == 0)
+                    return value;
+            }
+            throw new InvalidMidiDataException("Variable-length quantity longer than 4 bytes at offset " + (pos - 4));
+        }
+
+        // Length of a meta or sysex event, checked to fit in the rest of the track.
+        int readLength() throws InvalidMidiDataException {
+            int length = readVariableLength();
+            checkFits(length);
+            return length;
+        }
+
+        void skip(int length) throws InvalidMidiDataException {
+            checkFits(length);
+            pos += length;
+        }
+
+        private void checkFits(int length) throws InvalidMidiDataException {
+            if (length < 0 || length > end - pos)
+                throw new InvalidMidiDataException("Event length " + length + " runs past its track at offset " + pos);
+        }
     }
 }
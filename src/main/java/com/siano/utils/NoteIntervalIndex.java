@@ -0,0 +1,134 @@
+package com.siano.utils;
+
+/**
+ * Static interval index over note ranges, laid out as an implicit augmented
+ * binary search tree over the notes sorted by start tick. Building is O(n),
+ * a query is O(log n + k) for k overlapping notes and does not allocate.
+ */
+public class NoteIntervalIndex {
+
+    private static final int LINEAR_SCAN_LEVEL = 3;
+
+    private final long[] startTicks;
+    private final long[] endTicks;
+    private final long[] maxEndTicks;
+    private final int size;
+    private final int rootLevel;
+
+    private final long[] stackNode = new long[64];
+    private final int[] stackLevel = new int[64];
+    private final boolean[] stackLeftDone = new boolean[64];
+
+    private int[] results = new int[64];
+    private int resultCount = 0;
+
+    /**
+     * @param startTicks note start ticks, sorted ascending
+     * @param endTicks   note end ticks, in the same order as {@code startTicks}
+     */
+    public NoteIntervalIndex(long[] startTicks, long[] endTicks) {
+        if (startTicks.length != endTicks.length)
+            throw new IllegalArgumentException("start and end arrays differ in length");
+        for (int i = 1; i < startTicks.length; i++) {
+            if (startTicks[i] < startTicks[i - 1])
+                throw new IllegalArgumentException("start ticks must be sorted");
+        }
+        this.startTicks = startTicks;
+        this.endTicks = endTicks;
+        this.size = startTicks.length;
+        this.maxEndTicks = new long[size];
+        this.rootLevel = buildMaxEnds();
+    }
+
+    private int buildMaxEnds() {
+        if (size == 0)
+            return -1;
+
+        long lastMax = 0;
+        int lastIndex = 0;
+        for (int i = 0; i < size; i += 2) {
+            lastIndex = i;
+            lastMax = maxEndTicks[i] = endTicks[i];
+        }
+
+        int level = 1;
+        for (; (1L << level) <= size; level++) {
+            int half = 1 << (level - 1);
+            int first = (half << 1) - 1;
+            int step = half << 2;
+            for (int i = first; i < size; i += step) {
+                long left = maxEndTicks[i - half];
+                long right = i + half < size ? maxEndTicks[i + half] : lastMax;
+                maxEndTicks[i] = Math.max(endTicks[i], Math.max(left, right));
+            }
+            lastIndex = ((lastIndex >> level) & 1) != 0 ? lastIndex - half : lastIndex + half;
+            if (lastIndex < size && maxEndTicks[lastIndex] > lastMax)
+                lastMax = maxEndTicks[lastIndex];
+        }
+        return level - 1;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Collects the indices of all notes whose {@code [start, end]} range
+     * overlaps {@code [fromTick, toTick]}. The indices are read back with
+     * {@link #result(int)} and stay valid until the next query.
+     *
+     * @return the number of overlapping notes
+     */
+    public int query(long fromTick, long toTick) {
+        resultCount = 0;
+        if (size == 0 || fromTick > toTick)
+            return 0;
+
+        int top = 0;
+        push(top++, (1L << rootLevel) - 1, rootLevel, false);
+        while (top > 0) {
+            top--;
+            long node = stackNode[top];
+            int level = stackLevel[top];
+            boolean leftDone = stackLeftDone[top];
+
+            if (level <= LINEAR_SCAN_LEVEL) {
+                long first = node >> level << level;
+                long last = Math.min(first + (1L << (level + 1)) - 1, size);
+                for (int i = (int) first; i < last && startTicks[i] <= toTick; i++) {
+                    if (endTicks[i] >= fromTick)
+                        addResult(i);
+                }
+            } else if (!leftDone) {
+                long left = node - (1L << (level - 1));
+                push(top++, node, level, true);
+                if (left >= size || maxEndTicks[(int) left] >= fromTick)
+                    push(top++, left, level - 1, false);
+            } else if (node < size && startTicks[(int) node] <= toTick) {
+                if (endTicks[(int) node] >= fromTick)
+                    addResult((int) node);
+                push(top++, node + (1L << (level - 1)), level - 1, false);
+            }
+        }
+        return resultCount;
+    }
+
+    public int result(int i) {
+        return results[i];
+    }
+
+    private void push(int slot, long node, int level, boolean leftDone) {
+        stackNode[slot] = node;
+        stackLevel[slot] = level;
+        stackLeftDone[slot] = leftDone;
+    }
+
+    private void addResult(int noteIndex) {
+        if (resultCount == results.length) {
+            int[] grown = new int[results.length * 2];
+            System.arraycopy(results, 0, grown, 0, resultCount);
+            results = grown;
+        }
+        results[resultCount++] = noteIndex;
+    }
+}
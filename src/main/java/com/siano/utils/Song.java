@@ -0,0 +1,389 @@
+package com.siano.utils;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Immutable, column-oriented note data of a parsed MIDI file. Notes are sorted
+ * by start tick and grouped into events (notes that start on the same tick);
+ * event {@code e} covers note indices {@code [eventStart(e), eventEnd(e))}.
+ */
+public final class Song {
+
+    private static final String[] NOTE_NAMES = { "Do", "Do#", "Re", "Re#", "Mi", "Fa", "Fa#", "Sol", "Sol#", "La",
+            "La#", "Si" };
+
+    private final byte[] keys;
+    private final byte[] velocities;
+    private final long[] startTicks;
+    private final long[] endTicks;
+    private final int[] eventOffsets;
+    private final long lastTick;
+    private final TempoMap tempoMap;
+    private final MeterMap meterMap;
+    private volatile KeyNoteIndex keyIndex;
+
+    Song(TempoMap tempoMap, MeterMap meterMap, byte[] keys, byte[] velocities, long[] startTicks, long[] endTicks, int[] eventOffsets) {
+        this.tempoMap = tempoMap;
+        this.meterMap = meterMap;
+        this.keys = keys;
+        this.velocities = velocities;
+        this.startTicks = startTicks;
+        this.endTicks = endTicks;
+        this.eventOffsets = eventOffsets;
+
+        long last = 0;
+        for (long end : endTicks)
+            last = Math.max(last, end);
+        this.lastTick = last;
+    }
+
+    /**
+     * @return ticks per quarter note
+     */
+    public int getResolution() {
+        return tempoMap.getResolution();
+    }
+
+    public TempoMap getTempoMap() {
+        return tempoMap;
+    }
+
+    public MeterMap getMeterMap() {
+        return meterMap;
+    }
+
+    public int getNoteCount() {
+        return keys.length;
+    }
+
+    public int getEventCount() {
+        return eventOffsets.length - 1;
+    }
+
+    public boolean isEmpty() {
+        return keys.length == 0;
+    }
+
+    public int key(int note) {
+        return keys[note];
+    }
+
+    public int velocity(int note) {
+        return velocities[note];
+    }
+
+    public long startTick(int note) {
+        return startTicks[note];
+    }
+
+    public long endTick(int note) {
+        return endTicks[note];
+    }
+
+    public long durationTicks(int note) {
+        return endTicks[note] - startTicks[note];
+    }
+
+    public String noteName(int note) {
+        return noteNameOfKey(keys[note]);
+    }
+
+    public int eventStart(int event) {
+        return eventOffsets[event];
+    }
+
+    public int eventEnd(int event) {
+        return eventOffsets[event + 1];
+    }
+
+    public long eventTick(int event) {
+        return startTicks[eventOffsets[event]];
+    }
+
+    /**
+     * @return first event starting at or after {@code tick}, or
+     *         {@link #getEventCount()} if there is none
+     */
+    public int eventAtOrAfter(double tick) {
+        int lo = 0;
+        int hi = getEventCount();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (eventTick(mid) < tick)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    public long getLastTick() {
+        return lastTick;
+    }
+
+    public NoteIntervalIndex createIntervalIndex() {
+        return new NoteIntervalIndex(startTicks, endTicks);
+    }
+
+    /**
+     * @return the song's notes grouped by key, built on first use and shared
+     *         by every caller afterwards
+     */
+    public KeyNoteIndex getKeyIndex() {
+        KeyNoteIndex index = keyIndex;
+        if (index == null)
+            keyIndex = index = new KeyNoteIndex(this);
+        return index;
+    }
+
+    /**
+     * @return number of bytes {@link #writeTo} produces
+     */
+    public int serializedSize() {
+        return 8 + tempoMap.getSegmentCount() * 12 + 4 + meterMap.getSegmentCount() * 16 + 8 + keys.length * (1 + 1 + 8 + 8) + eventOffsets.length * 4;
+    }
+
+    public void writeTo(ByteBuffer out) {
+        out.putInt(tempoMap.getResolution());
+        out.putInt(tempoMap.getSegmentCount());
+        for (int i = 0; i < tempoMap.getSegmentCount(); i++) {
+            out.putLong(tempoMap.segmentTick(i));
+            out.putInt(tempoMap.microsPerQuarter(i));
+        }
+        out.putInt(meterMap.getSegmentCount());
+        for (int i = 0; i < meterMap.getSegmentCount(); i++) {
+            out.putLong(meterMap.segmentTick(i));
+            out.putInt(meterMap.numerator(i));
+            out.putInt(meterMap.denominator(i));
+        }
+        out.putInt(keys.length);
+        out.putInt(eventOffsets.length);
+        out.put(keys);
+        out.put(velocities);
+        out.asLongBuffer().put(startTicks);
+        out.position(out.position() + startTicks.length * 8);
+        out.asLongBuffer().put(endTicks);
+        out.position(out.position() + endTicks.length * 8);
+        out.asIntBuffer().put(eventOffsets);
+        out.position(out.position() + eventOffsets.length * 4);
+    }
+
+    /**
+     * Reads a song written by {@link #writeTo}.
+     *
+     * @throws IllegalArgumentException if a count does not fit in what is left
+     *                                  of {@code in}, or the notes and events
+     *                                  read do not form a valid song
+     */
+    public static Song readFrom(ByteBuffer in) {
+        int resolution = in.getInt();
+        int segmentCount = readCount(in, 12, 0);
+        long[] tempoTicks = new long[segmentCount];
+        int[] tempos = new int[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            tempoTicks[i] = in.getLong();
+            tempos[i] = in.getInt();
+        }
+        int meterCount = readCount(in, 16, 0);
+        long[] meterTicks = new long[meterCount];
+        int[] numerators = new int[meterCount];
+        int[] denominators = new int[meterCount];
+        for (int i = 0; i < meterCount; i++) {
+            meterTicks[i] = in.getLong();
+            numerators[i] = in.getInt();
+            denominators[i] = in.getInt();
+        }
+        // Each note takes a key, a velocity and two ticks; the offset count follows the note count.
+        int noteCount = readCount(in, 1 + 1 + 8 + 8, 4);
+        int offsetCount = readCount(in, 4, noteCount * (1L + 1 + 8 + 8));
+        byte[] keys = new byte[noteCount];
+        byte[] velocities = new byte[noteCount];
+        long[] startTicks = new long[noteCount];
+        long[] endTicks = new long[noteCount];
+        int[] eventOffsets = new int[offsetCount];
+        in.get(keys);
+        in.get(velocities);
+        in.asLongBuffer().get(startTicks);
+        in.position(in.position() + noteCount * 8);
+        in.asLongBuffer().get(endTicks);
+        in.position(in.position() + noteCount * 8);
+        in.asIntBuffer().get(eventOffsets);
+        in.position(in.position() + offsetCount * 4);
+        checkNotes(keys, startTicks, eventOffsets);
+        return new Song(new TempoMap(resolution, tempoTicks, tempos),
+                new MeterMap(resolution, meterTicks, numerators, denominators), keys, velocities, startTicks, endTicks,
+                eventOffsets);
+    }
+
+    // Keys index per-key tables and offsets index the note arrays, so bad ones
+    // would only fail later, deep in the engine or a view.
+    private static void checkNotes(byte[] keys, long[] startTicks, int[] eventOffsets) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] < 0)
+                throw new IllegalArgumentException("MIDI key out of range: " + (keys[i] & 0xFF));
+            if (i > 0 && startTicks[i] < startTicks[i - 1])
+                throw new IllegalArgumentException("Notes are not sorted by start tick at note " + i);
+        }
+        int last = eventOffsets.length - 1;
+        if (last < 0 || eventOffsets[0] != 0 || eventOffsets[last] != keys.length)
+            throw new IllegalArgumentException("Event offsets do not span the " + keys.length + " notes");
+        for (int i = 1; i <= last; i++) {
+            if (eventOffsets[i] <= eventOffsets[i - 1])
+                throw new IllegalArgumentException("Event offsets are not increasing at event " + i);
+        }
+    }
+
+    private static int readCount(ByteBuffer in, int bytesEach, long bytesAfter) {
+        int count = in.getInt();
+        if (count < 0 || (long) count * bytesEach + bytesAfter > in.remaining())
+            throw new IllegalArgumentException("Count " + count + " does not fit in " + in.remaining() + " bytes");
+        return count;
+    }
+
+    public static String noteNameOfKey(int key) {
+        return NOTE_NAMES[key % 12] + (key / 12 - 1);
+    }
+
+    /**
+     * Collects notes in any order and produces a sorted, grouped {@link Song}.
+     */
+    public static class Builder {
+
+        private byte[] keys = new byte[256];
+        private byte[] velocities = new byte[256];
+        private long[] startTicks = new long[256];
+        private long[] endTicks = new long[256];
+        private int size = 0;
+        private int resolution = 480;
+        private long[] tempoTicks = new long[4];
+        private int[] tempos = new int[4];
+        private int tempoCount = 0;
+        private long[] meterTicks = new long[2];
+        private int[] meterNumerators = new int[2];
+        private int[] meterDenominators = new int[2];
+        private int meterCount = 0;
+
+        public Builder resolution(int resolution) {
+            this.resolution = resolution;
+            return this;
+        }
+
+        public Builder tempo(long tick, int microsPerQuarter) {
+            if (tempoCount == tempoTicks.length) {
+                tempoTicks = Arrays.copyOf(tempoTicks, tempoCount * 2);
+                tempos = Arrays.copyOf(tempos, tempoCount * 2);
+            }
+            // Keep tempo changes ordered by tick; later changes on the same tick win.
+            int i = tempoCount++;
+            while (i > 0 && tempoTicks[i - 1] > tick) {
+                tempoTicks[i] = tempoTicks[i - 1];
+                tempos[i] = tempos[i - 1];
+                i--;
+            }
+            tempoTicks[i] = tick;
+            tempos[i] = microsPerQuarter;
+            return this;
+        }
+
+        public Builder meter(long tick, int numerator, int denominator) {
+            if (numerator <= 0 || denominator <= 0)
+                throw new IllegalArgumentException("Invalid time signature " + numerator + "/" + denominator);
+            if (meterCount == meterTicks.length) {
+                meterTicks = Arrays.copyOf(meterTicks, meterCount * 2);
+                meterNumerators = Arrays.copyOf(meterNumerators, meterCount * 2);
+                meterDenominators = Arrays.copyOf(meterDenominators, meterCount * 2);
+            }
+            int i = meterCount++;
+            while (i > 0 && meterTicks[i - 1] > tick) {
+                meterTicks[i] = meterTicks[i - 1];
+                meterNumerators[i] = meterNumerators[i - 1];
+                meterDenominators[i] = meterDenominators[i - 1];
+                i--;
+            }
+            meterTicks[i] = tick;
+            meterNumerators[i] = numerator;
+            meterDenominators[i] = denominator;
+            return this;
+        }
+
+        public Builder addNote(int key, int velocity, long startTick, long endTick) {
+            if (size == keys.length) {
+                int capacity = size * 2;
+                keys = Arrays.copyOf(keys, capacity);
+                velocities = Arrays.copyOf(velocities, capacity);
+                startTicks = Arrays.copyOf(startTicks, capacity);
+                endTicks = Arrays.copyOf(endTicks, capacity);
+            }
+            keys[size] = (byte) key;
+            velocities[size] = (byte) velocity;
+            startTicks[size] = startTick;
+            endTicks[size] = endTick;
+            size++;
+            return this;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public Song build() {
+            int[] order = sortedOrder();
+
+            byte[] sortedKeys = new byte[size];
+            byte[] sortedVelocities = new byte[size];
+            long[] sortedStarts = new long[size];
+            long[] sortedEnds = new long[size];
+            int eventCount = 0;
+            for (int i = 0; i < size; i++) {
+                int n = order[i];
+                sortedKeys[i] = keys[n];
+                sortedVelocities[i] = velocities[n];
+                sortedStarts[i] = startTicks[n];
+                sortedEnds[i] = endTicks[n];
+                if (i == 0 || sortedStarts[i] != sortedStarts[i - 1])
+                    eventCount++;
+            }
+
+            int[] eventOffsets = new int[eventCount + 1];
+            int event = 0;
+            for (int i = 0; i < size; i++) {
+                if (i == 0 || sortedStarts[i] != sortedStarts[i - 1])
+                    eventOffsets[event++] = i;
+            }
+            eventOffsets[eventCount] = size;
+
+            TempoMap tempoMap = new TempoMap(resolution, Arrays.copyOf(tempoTicks, tempoCount),
+                    Arrays.copyOf(tempos, tempoCount));
+            MeterMap meterMap = new MeterMap(resolution, Arrays.copyOf(meterTicks, meterCount),
+                    Arrays.copyOf(meterNumerators, meterCount), Arrays.copyOf(meterDenominators, meterCount));
+            return new Song(tempoMap, meterMap, sortedKeys, sortedVelocities, sortedStarts, sortedEnds, eventOffsets);
+        }
+
+        // Stable bottom-up merge sort of note indices by start tick.
+        private int[] sortedOrder() {
+            int[] order = new int[size];
+            int[] buffer = new int[size];
+            for (int i = 0; i < size; i++)
+                order[i] = i;
+
+            for (int width = 1; width < size; width *= 2) {
+                for (int lo = 0; lo < size; lo += 2 * width) {
+                    int mid = Math.min(lo + width, size);
+                    int hi = Math.min(lo + 2 * width, size);
+                    int a = lo, b = mid, out = lo;
+                    while (a < mid && b < hi)
+                        buffer[out++] = startTicks[order[b]] < startTicks[order[a]] ? order[b++] : order[a++];
+                    while (a < mid)
+                        buffer[out++] = order[a++];
+                    while (b < hi)
+                        buffer[out++] = order[b++];
+                }
+                int[] swap = order;
+                order = buffer;
+                buffer = swap;
+            }
+            return order;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.siano.utils;
+
+import javax.sound.midi.InvalidMidiDataException;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Two-level cache of parsed songs: a small in-memory LRU in front of a
+ * directory of binary song files. A cache file is keyed by the MIDI file's
+ * path and is only trusted while the file's size and modification time
+ * still match, so edited files are re-parsed and re-cached automatically.
+ */
+public class SongCache {
+
+    private static final int MAGIC = 0x5349414E; // "SIAN"
+    private static final int FORMAT_VERSION = 3;
+    private static final String EXTENSION = ".song";
+
+    private final Path cacheDir;
+    private final MidiReader reader;
+    private final Map<Path, Entry> memory;
+
+    private record Entry(long size, long modified, Song song) {
+    }
+
+    public SongCache(Path cacheDir, MidiReader reader, int memoryCapacity) {
+        this.cacheDir = cacheDir;
+        this.reader = reader;
+        this.memory = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Path, Entry> eldest) {
+                return size() > memoryCapacity;
+            }
+        };
+    }
+
+    public Song load(Path midiFile) throws InvalidMidiDataException, IOException {
+        return load(midiFile, true);
+    }
+
+    /**
+     * Like {@link #load}, but goes through the disk cache only, so loading
+     * many files in a row (e.g. to index a library) does not push the songs
+     * being played out of memory.
+     */
+    public Song loadWithoutMemory(Path midiFile) throws InvalidMidiDataException, IOException {
+        return load(midiFile, false);
+    }
+
+    private Song load(Path midiFile, boolean useMemory) throws InvalidMidiDataException, IOException {
+        Path file = midiFile.toAbsolutePath().normalize();
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        long size = attributes.size();
+        long modified = attributes.lastModifiedTime().toMillis();
+
+        if (useMemory) {
+            synchronized (memory) {
+                Entry entry = memory.get(file);
+                if (entry != null && entry.size() == size && entry.modified() == modified)
+                    return entry.song();
+            }
+        }
+
+        Path cacheFile = cacheFileFor(file);
+        Song song = readCacheFile(cacheFile, file, size, modified);
+        if (song == null) {
+            song = reader.readNoteEvents(file);
+            try {
+                writeCacheFile(cacheFile, file, size, modified, song);
+            } catch (IOException e) {
+                System.err.println("Could not write song cache for " + file + ": " + e.getMessage());
+            }
+        }
+
+        if (useMemory) {
+            synchronized (memory) {
+                memory.put(file, new Entry(size, modified, song));
+            }
+        }
+        return song;
+    }
+
+    public void evict(Path midiFile) {
+        Path file = midiFile.toAbsolutePath().normalize();
+        synchronized (memory) {
+            memory.remove(file);
+        }
+        try {
+            Files.deleteIfExists(cacheFileFor(file));
+        } catch (IOException e) {
+            System.err.println("Could not delete song cache for " + file + ": " + e.getMessage());
+        }
+    }
+
+    private Song readCacheFile(Path cacheFile, Path file, long size, long modified) {
+        try (FileChannel channel = FileChannel.open(cacheFile, StandardOpenOption.READ)) {
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (in.getInt() != MAGIC || in.getInt() != FORMAT_VERSION)
+                return null;
+            if (in.getLong() != size || in.getLong() != modified)
+                return null;
+            int pathLength = in.getInt();
+            if (pathLength < 0 || pathLength > in.remaining())
+                throw new IllegalArgumentException("Path length " + pathLength + " does not fit in the file");
+            byte[] pathBytes = new byte[pathLength];
+            in.get(pathBytes);
+            if (!file.toString().equals(new String(pathBytes, StandardCharsets.UTF_8)))
+                return null;
+            return Song.readFrom(in);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException | BufferUnderflowException | IllegalArgumentException e) {
+            System.err.println("Ignoring unreadable song cache " + cacheFile + ": " + e);
+            return null;
+        }
+    }
+
+    private void writeCacheFile(Path cacheFile, Path file, long size, long modified, Song song) throws IOException {
+        byte[] pathBytes = file.toString().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer out = ByteBuffer.allocate(4 + 4 + 8 + 8 + 4 + pathBytes.length + song.serializedSize());
+        out.putInt(MAGIC);
+        out.putInt(FORMAT_VERSION);
+        out.putLong(size);
+        out.putLong(modified);
+        out.putInt(pathBytes.length);
+        out.put(pathBytes);
+        song.writeTo(out);
+        out.flip();
+
+        Files.createDirectories(cacheDir);
+        Path tempFile = Files.createTempFile(cacheDir, "song", ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+                while (out.hasRemaining())
+                    channel.write(out);
+            }
+            Files.move(tempFile, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    private Path cacheFileFor(Path file) {
+        // 64-bit FNV-1a over the path; the full path is checked on read.
+        long hash = 0xcbf29ce484222325L;
+        String key = file.toString();
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return cacheDir.resolve(Long.toHexString(hash) + EXTENSION);
+    }
+}
@@ -0,0 +1,105 @@
+package com.siano.utils;
+
+import java.util.Arrays;
+
+/**
+ * Piecewise-constant tempo of a song. Each segment starts at a tick with a
+ * fixed quarter-note length; conversions in either direction binary-search
+ * the segment and interpolate linearly inside it.
+ */
+public final class TempoMap {
+
+    public static final int DEFAULT_MICROS_PER_QUARTER = 500_000;
+
+    private final int resolution;
+    private final long[] segmentTicks;
+    private final int[] microsPerQuarter;
+    private final double[] segmentMicros;
+
+    /**
+     * @param resolution       ticks per quarter note
+     * @param ticks            ticks at which the tempo changes, sorted ascending
+     * @param microsPerQuarter tempo from each of those ticks on
+     */
+    TempoMap(int resolution, long[] ticks, int[] microsPerQuarter) {
+        this.resolution = resolution;
+
+        int count = 0;
+        long[] segTicks = new long[ticks.length + 1];
+        int[] segTempo = new int[ticks.length + 1];
+        segTicks[count] = 0;
+        segTempo[count++] = DEFAULT_MICROS_PER_QUARTER;
+        for (int i = 0; i < ticks.length; i++) {
+            if (ticks[i] == segTicks[count - 1]) {
+                segTempo[count - 1] = microsPerQuarter[i];
+            } else {
+                segTicks[count] = ticks[i];
+                segTempo[count++] = microsPerQuarter[i];
+            }
+        }
+        this.segmentTicks = Arrays.copyOf(segTicks, count);
+        this.microsPerQuarter = Arrays.copyOf(segTempo, count);
+
+        this.segmentMicros = new double[count];
+        for (int i = 1; i < count; i++) {
+            segmentMicros[i] = segmentMicros[i - 1]
+                    + (double) (segmentTicks[i] - segmentTicks[i - 1]) * this.microsPerQuarter[i - 1] / resolution;
+        }
+    }
+
+    public static TempoMap constant(int resolution) {
+        return new TempoMap(resolution, new long[0], new int[0]);
+    }
+
+    public int getResolution() {
+        return resolution;
+    }
+
+    public int getSegmentCount() {
+        return segmentTicks.length;
+    }
+
+    public long segmentTick(int segment) {
+        return segmentTicks[segment];
+    }
+
+    public int microsPerQuarter(int segment) {
+        return microsPerQuarter[segment];
+    }
+
+    public double tickToMicros(double tick) {
+        int segment = segmentForTick(tick);
+        return segmentMicros[segment] + (tick - segmentTicks[segment]) * microsPerQuarter[segment] / resolution;
+    }
+
+    public double microsToTick(double micros) {
+        int segment = segmentForMicros(micros);
+        return segmentTicks[segment] + (micros - segmentMicros[segment]) * resolution / microsPerQuarter[segment];
+    }
+
+    private int segmentForTick(double tick) {
+        int lo = 0;
+        int hi = segmentTicks.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (segmentTicks[mid] <= tick)
+                lo = mid;
+            else
+                hi = mid - 1;
+        }
+        return lo;
+    }
+
+    private int segmentForMicros(double micros) {
+        int lo = 0;
+        int hi = segmentMicros.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (segmentMicros[mid] <= micros)
+                lo = mid;
+            else
+                hi = mid - 1;
+        }
+        return lo;
+    }
+}
@@ -0,0 +1,94 @@
+package com.siano.audio;
+
+import be.tarsos.dsp.AudioEvent;
+import be.tarsos.dsp.io.TarsosDSPAudioFormat;
+import be.tarsos.dsp.pitch.PitchDetectionHandler;
+import be.tarsos.dsp.pitch.PitchProcessor;
+import be.tarsos.dsp.pitch.PitchProcessor.PitchEstimationAlgorithm;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FastYinTest {
+
+    private static final float SAMPLE_RATE = 44100;
+    private static final int[] BUFFER_SIZES = { 1024, 2048 };
+    private static final double MAX_CENTS = 1.0;
+    private static final int TRIALS = 200;
+
+    private final AudioEvent event = new AudioEvent(new TarsosDSPAudioFormat(SAMPLE_RATE, 16, 1, true, false));
+    private float pitch;
+    private boolean pitched;
+    private final PitchDetectionHandler handler = (result, audioEvent) -> {
+        pitch = result.getPitch();
+        pitched = result.isPitched();
+    };
+
+    @Test
+    void pureTonesMatchTarsosYin() {
+        compare(1, 0.01, 2);
+    }
+
+    @Test
+    void harmonicTonesMatchTarsosYin() {
+        compare(6, 0.01, 3);
+    }
+
+    @Test
+    void noiseMatchesTarsosYin() {
+        compare(0, 0.3, 4);
+    }
+
+    @Test
+    void tonesInNoiseMatchTarsosYin() {
+        // Enough noise to put some frames on either side of the voicing threshold.
+        compare(3, -1, 5);
+    }
+
+    /**
+     * @param noise standard deviation of the added noise, or negative for a
+     *              random one per frame
+     */
+    private void compare(int harmonics, double noise, long seed) {
+        Random random = new Random(seed);
+        for (int bufferSize : BUFFER_SIZES) {
+            // Lowest key whose period still fits in half the buffer.
+            int lowestKey = (int) Math.ceil(69 + 12 * log2(2 * SAMPLE_RATE / bufferSize / 440));
+            FastYin fast = new FastYin(SAMPLE_RATE, bufferSize, handler);
+            PitchProcessor tarsos = new PitchProcessor(PitchEstimationAlgorithm.YIN, SAMPLE_RATE, bufferSize, handler);
+            for (int trial = 0; trial < TRIALS; trial++) {
+                int key = lowestKey + 1 + random.nextInt(96 - lowestKey);
+                double frequency = 440 * Math.pow(2, (key - 69) / 12.0);
+                double phase = random.nextDouble() * 2 * Math.PI;
+                double deviation = noise >= 0 ? noise : random.nextDouble() * 0.3;
+                float[] samples = new float[bufferSize];
+                for (int i = 0; i < bufferSize; i++) {
+                    double value = deviation * random.nextGaussian();
+                    for (int h = 1; h <= harmonics; h++)
+                        value += 0.3 / h * Math.sin(2 * Math.PI * frequency * h * i / SAMPLE_RATE + phase * h);
+                    samples[i] = (float) value;
+                }
+                event.setFloatBuffer(samples);
+
+                tarsos.process(event);
+                float expectedPitch = pitch;
+                boolean expectedPitched = pitched;
+                fast.process(event);
+
+                String description = bufferSize + " samples, trial " + trial + ", key " + key;
+                assertEquals(expectedPitched, pitched, description);
+                if (expectedPitched) {
+                    double cents = Math.abs(1200 * log2(pitch / expectedPitch));
+                    assertTrue(cents < MAX_CENTS, description + ": " + pitch + " Hz vs " + expectedPitch + " Hz");
+                }
+            }
+        }
+    }
+
+    private static double log2(double value) {
+        return Math.log(value) / Math.log(2);
+    }
+}
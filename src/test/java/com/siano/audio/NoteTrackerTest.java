@@ -0,0 +1,48 @@
+package com.siano.audio;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class NoteTrackerTest {
+
+    private static final long FRAME_NANOS = 6_000_000L;
+
+    private final List<Integer> onsets = new ArrayList<>();
+    private final NoteTracker tracker = new NoteTracker((midiKey, level, nanos) -> onsets.add(midiKey));
+    private long nanos = 0;
+
+    @Test
+    void addingAKeyToAHeldChordDoesNotRestrikeTheHeldKeys() {
+        for (int i = 0; i < 20; i++)
+            frame(0.05, new int[] { 60, 64 }, new double[] { 1, 1 });
+        assertEquals(List.of(60, 64), onsets);
+
+        onsets.clear();
+        // The frame gets much louder, but the held keys do not.
+        for (int i = 0; i < 20; i++)
+            frame(0.2, new int[] { 60, 64, 67 }, new double[] { 1, 1, 3 });
+        assertEquals(List.of(67), onsets);
+    }
+
+    @Test
+    void aHeldKeyGettingLouderIsARestrike() {
+        for (int i = 0; i < 20; i++)
+            frame(0.05, new int[] { 60, 64 }, new double[] { 1, 1 });
+        onsets.clear();
+
+        frame(0.1, new int[] { 60, 64 }, new double[] { 3, 1 });
+        assertEquals(List.of(60), onsets);
+    }
+
+    private void frame(double rms, int[] keys, double[] levels) {
+        tracker.beginFrame(rms, nanos);
+        for (int i = 0; i < keys.length; i++)
+            tracker.observe(keys[i], 1.0f, levels[i]);
+        tracker.endFrame();
+        nanos += FRAME_NANOS;
+    }
+}
@@ -0,0 +1,59 @@
+package com.siano.input;
+
+import org.junit.jupiter.api.Test;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.ShortMessage;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NoteQueueReceiverTest {
+
+    private final NoteEventQueue queue = new NoteEventQueue(16);
+    private final NoteQueueReceiver receiver = new NoteQueueReceiver(queue);
+
+    @Test
+    void queuesOnlyNoteOnWithVelocity() throws InvalidMidiDataException {
+        send(ShortMessage.NOTE_ON, 0, 60, 100);
+        send(ShortMessage.NOTE_ON, 0, 60, 0);
+        send(ShortMessage.NOTE_OFF, 0, 60, 64);
+        send(ShortMessage.CONTROL_CHANGE, 0, 64, 127);
+        send(ShortMessage.NOTE_ON, 9, 38, 50);
+
+        List<Integer> keys = new ArrayList<>();
+        List<Integer> velocities = new ArrayList<>();
+        queue.drain((midiKey, velocity, timestampNanos) -> {
+            keys.add(midiKey);
+            velocities.add(velocity);
+        });
+        assertEquals(List.of(60, 38), keys);
+        assertEquals(List.of(100, 50), velocities);
+        assertEquals(0L, queue.getDroppedCount());
+    }
+
+    @Test
+    void deviceTimestampsAreNeverInTheFuture() throws InvalidMidiDataException {
+        long before = System.nanoTime();
+        receiver.send(new ShortMessage(ShortMessage.NOTE_ON, 0, 60, 100), 5_000_000);
+        receiver.send(new ShortMessage(ShortMessage.NOTE_ON, 0, 62, 100), 5_500_000);
+        receiver.send(new ShortMessage(ShortMessage.NOTE_ON, 0, 64, 100), -1);
+        long after = System.nanoTime();
+
+        List<Long> timestamps = new ArrayList<>();
+        queue.drain((midiKey, velocity, timestampNanos) -> timestamps.add(timestampNanos));
+        assertEquals(3, timestamps.size());
+        long previous = before;
+        for (long timestamp : timestamps) {
+            assertTrue(timestamp >= previous && timestamp <= after, () -> timestamps + " not within " + before
+                    + ".." + after);
+            previous = timestamp;
+        }
+    }
+
+    private void send(int command, int channel, int data1, int data2) throws InvalidMidiDataException {
+        receiver.send(new ShortMessage(command, channel, data1, data2), -1);
+    }
+}
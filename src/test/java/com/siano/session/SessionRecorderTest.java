@@ -0,0 +1,86 @@
+package com.siano.session;
+
+import com.siano.GameEngine;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SessionRecorderTest {
+
+    @Test
+    void partlyFilledPagesReachTheFileBeforeClose() throws Exception {
+        Path dir = Files.createTempDirectory("session-recorder-test");
+        try {
+            Path file = dir.resolve("a.slog");
+            SessionRecorder recorder = new SessionRecorder(file);
+            for (int i = 0; i < 10; i++)
+                recorder.onInput(60, 100, i);
+            Thread.sleep(300);
+            recorder.onInput(62, 100, 10);
+            awaitSize(file, SessionLog.HEADER_SIZE + 10 * SessionLog.RECORD_SIZE);
+
+            recorder.onStateChanged(GameEngine.State.FINISHED, 0, 0);
+            awaitSize(file, SessionLog.HEADER_SIZE + 12 * SessionLog.RECORD_SIZE);
+
+            recorder.close();
+            assertEquals((long) SessionLog.HEADER_SIZE + 12 * SessionLog.RECORD_SIZE, Files.size(file));
+            assertEquals(0L, recorder.getDroppedRecordCount());
+        } finally {
+            deleteRecursively(dir);
+        }
+    }
+
+    @Test
+    void deleteOldLogsKeepsTheNewest() throws Exception {
+        Path dir = Files.createTempDirectory("session-recorder-test");
+        try {
+            for (int i = 0; i < 5; i++) {
+                Path log = Files.createFile(dir.resolve("session-" + i + ".slog"));
+                Files.setLastModifiedTime(log, FileTime.fromMillis(1_000_000L * (5 - i)));
+            }
+            Files.createFile(dir.resolve("notes.txt"));
+
+            SessionRecorder.deleteOldLogs(dir, 2);
+            List<String> left;
+            try (Stream<Path> files = Files.list(dir)) {
+                left = files.map(file -> file.getFileName().toString()).sorted().toList();
+            }
+            assertEquals(List.of("notes.txt", "session-0.slog", "session-1.slog"), left);
+        } finally {
+            deleteRecursively(dir);
+        }
+    }
+
+    private static void awaitSize(Path file, long size) throws Exception {
+        long deadline = System.nanoTime() + 2_000_000_000L;
+        while (Files.size(file) < size && System.nanoTime() < deadline)
+            Thread.sleep(10);
+        assertTrue(Files.size(file) >= size, () -> file + " has " + sizeOf(file) + " bytes, expected " + size);
+    }
+
+    private static long sizeOf(Path file) {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        List<Path> paths;
+        try (Stream<Path> walk = Files.walk(dir)) {
+            paths = walk.sorted(Comparator.reverseOrder()).toList();
+        }
+        for (Path path : paths)
+            Files.delete(path);
+    }
+}
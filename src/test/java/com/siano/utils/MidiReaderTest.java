@@ -0,0 +1,99 @@
+package com.siano.utils;
+
+import org.junit.jupiter.api.Test;
+
+import javax.sound.midi.InvalidMidiDataException;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class MidiReaderTest {
+
+    private static final int[] NOTE = { 0x00, 0x90, 60, 100, 0x60, 0x80, 60, 0 };
+    private static final int[] END_OF_TRACK = { 0x00, 0xFF, 0x2F, 0x00 };
+
+    @Test
+    void readsNotesAroundSkippedEvents() throws Exception {
+        Song song = parse(track(
+                new int[] { 0x00, 0xFF, 0x01, 0x03, 'a', 'b', 'c' },
+                new int[] { 0x00, 0xF0, 0x02, 0x7E, 0xF7 },
+                // Song position pointer with its two data bytes.
+                new int[] { 0x00, 0xF2, 0x10, 0x20 },
+                NOTE,
+                END_OF_TRACK));
+        assertEquals(1, song.getNoteCount());
+        assertEquals(60, song.key(0));
+        assertEquals(0x60, song.endTick(0));
+    }
+
+    @Test
+    void rejectsOverlongVariableLengthQuantity() {
+        // Five length bytes would wrap around to -8 and move the cursor backwards.
+        assertRejected(track(new int[] { 0x00, 0xFF, 0x01, 0x8F, 0xFF, 0xFF, 0xFF, 0x78 }, NOTE, END_OF_TRACK));
+        assertRejected(track(new int[] { 0x8F, 0xFF, 0xFF, 0xFF, 0x78, 0x90, 60, 100 }, END_OF_TRACK));
+    }
+
+    @Test
+    void rejectsLengthsRunningPastTheTrack() {
+        assertRejected(track(new int[] { 0x00, 0xFF, 0x01, 0x40, 'a' }));
+        assertRejected(track(new int[] { 0x00, 0xF0, 0x83, 0x00, 0x7E }));
+        assertRejected(track(new int[] { 0x00, 0xF2, 0x10 }));
+    }
+
+    @Test
+    void rejectsTruncatedVariableLengthQuantity() {
+        assertRejected(track(NOTE, new int[] { 0x81 }));
+        assertRejected(track(new int[] { 0x00, 0xFF, 0x01, 0x81 }));
+    }
+
+    private static void assertRejected(byte[] file) {
+        try {
+            parse(file);
+        } catch (InvalidMidiDataException e) {
+            return;
+        } catch (Exception e) {
+            throw new AssertionError("Expected InvalidMidiDataException, got " + e, e);
+        }
+        throw new AssertionError("Expected InvalidMidiDataException");
+    }
+
+    // A broken length used to loop forever, so parsing gets a deadline.
+    private static Song parse(byte[] file) throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "midi-reader-test");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            Future<Song> song = executor.submit(() -> new MidiReader().parse(ByteBuffer.wrap(file)));
+            return song.get(5, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception cause)
+                throw cause;
+            throw e;
+        } catch (TimeoutException e) {
+            throw new AssertionError("Parsing did not finish");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static byte[] track(int[]... events) {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        for (int[] event : events) {
+            for (int b : event)
+                data.write(b);
+        }
+        ByteBuffer file = ByteBuffer.allocate(14 + 8 + data.size());
+        file.putInt(0x4D546864).putInt(6).putShort((short) 0).putShort((short) 1).putShort((short) 96);
+        file.putInt(0x4D54726B).putInt(data.size()).put(data.toByteArray());
+        return file.array();
+    }
+}
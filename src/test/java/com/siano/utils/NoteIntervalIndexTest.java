@@ -0,0 +1,54 @@
+package com.siano.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class NoteIntervalIndexTest {
+
+    @Test
+    void queryMatchesBruteForceScan() {
+        Random random = new Random(1);
+        for (int trial = 0; trial < 20_000; trial++) {
+            int size = random.nextInt(200);
+            long[] starts = new long[size];
+            long[] ends = new long[size];
+            for (int i = 0; i < size; i++)
+                starts[i] = random.nextInt(5000);
+            Arrays.sort(starts);
+            for (int i = 0; i < size; i++)
+                ends[i] = starts[i] + random.nextInt(random.nextBoolean() ? 50 : 2000);
+
+            NoteIntervalIndex index = new NoteIntervalIndex(starts, ends);
+            long from = random.nextInt(6000) - 500;
+            long to = from + random.nextInt(1000);
+
+            int count = index.query(from, to);
+            int[] found = new int[count];
+            for (int i = 0; i < count; i++)
+                found[i] = index.result(i);
+            Arrays.sort(found);
+
+            int[] expected = new int[size];
+            int expectedCount = 0;
+            for (int i = 0; i < size; i++) {
+                if (starts[i] <= to && ends[i] >= from)
+                    expected[expectedCount++] = i;
+            }
+            int trialNumber = trial;
+            assertArrayEquals(Arrays.copyOf(expected, expectedCount), found,
+                    () -> "trial " + trialNumber + ", " + size + " notes, window [" + from + ", " + to + "]");
+        }
+    }
+
+    @Test
+    void emptyIndexAndInvertedWindowFindNothing() {
+        assertEquals(0, new NoteIntervalIndex(new long[0], new long[0]).query(0, 100));
+        NoteIntervalIndex index = new NoteIntervalIndex(new long[] { 0, 10 }, new long[] { 20, 30 });
+        assertEquals(0, index.query(15, 5));
+    }
+}
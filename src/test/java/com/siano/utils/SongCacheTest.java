@@ -0,0 +1,67 @@
+package com.siano.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SongCacheTest {
+
+    // Magic, format version, file size and modification time come before the path length.
+    private static final int PATH_LENGTH_OFFSET = 4 + 4 + 8 + 8;
+
+    @Test
+    void corruptPathLengthIsACacheMiss() throws Exception {
+        Path dir = Files.createTempDirectory("song-cache-test");
+        try {
+            Path midiFile = dir.resolve("song.mid");
+            Files.write(midiFile, twoNoteFile());
+            Path cacheDir = dir.resolve("cache");
+            assertEquals(2, new SongCache(cacheDir, new MidiReader(), 4).load(midiFile).getNoteCount());
+
+            Path cacheFile;
+            try (Stream<Path> files = Files.list(cacheDir)) {
+                cacheFile = files.findFirst().orElseThrow();
+            }
+            for (int length : new int[] { -1, Integer.MIN_VALUE, Integer.MAX_VALUE }) {
+                writeInt(cacheFile, PATH_LENGTH_OFFSET, length);
+                assertEquals(2, new SongCache(cacheDir, new MidiReader(), 4).load(midiFile).getNoteCount());
+            }
+        } finally {
+            deleteRecursively(dir);
+        }
+    }
+
+    private static void writeInt(Path file, int position, int value) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(4).putInt(0, value), position);
+        }
+    }
+
+    private static byte[] twoNoteFile() {
+        byte[] track = { 0x00, (byte) 0x90, 60, 100, 0x60, (byte) 0x80, 60, 0, 0x00, (byte) 0x90, 64, 100, 0x60,
+                (byte) 0x80, 64, 0, 0x00, (byte) 0xFF, 0x2F, 0x00 };
+        ByteBuffer file = ByteBuffer.allocate(14 + 8 + track.length);
+        file.putInt(0x4D546864).putInt(6).putShort((short) 0).putShort((short) 1).putShort((short) 96);
+        file.putInt(0x4D54726B).putInt(track.length).put(track);
+        return file.array();
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        List<Path> paths;
+        try (Stream<Path> walk = Files.walk(dir)) {
+            paths = walk.sorted(Comparator.reverseOrder()).toList();
+        }
+        for (Path path : paths)
+            Files.delete(path);
+    }
+}
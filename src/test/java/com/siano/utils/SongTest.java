@@ -0,0 +1,96 @@
+package com.siano.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SongTest {
+
+    private final Song song = new Song.Builder()
+            .resolution(480)
+            .tempo(0, 500_000)
+            .tempo(1920, 400_000)
+            .meter(0, 3, 4)
+            .addNote(60, 80, 0, 480)
+            .addNote(64, 70, 0, 480)
+            .addNote(67, 90, 480, 960)
+            .build();
+
+    @Test
+    void readsBackWhatWasWritten() {
+        Song read = Song.readFrom(write());
+        assertEquals(song.getResolution(), read.getResolution());
+        assertEquals(song.getTempoMap().getSegmentCount(), read.getTempoMap().getSegmentCount());
+        assertEquals(song.getMeterMap().getSegmentCount(), read.getMeterMap().getSegmentCount());
+        assertEquals(song.getNoteCount(), read.getNoteCount());
+        assertEquals(song.getEventCount(), read.getEventCount());
+        for (int i = 0; i < song.getNoteCount(); i++) {
+            assertEquals(song.key(i), read.key(i));
+            assertEquals(song.velocity(i), read.velocity(i));
+            assertEquals(song.startTick(i), read.startTick(i));
+            assertEquals(song.endTick(i), read.endTick(i));
+        }
+    }
+
+    @Test
+    void rejectsCountsThatDoNotFit() {
+        int tempoCount = 4;
+        int meterCount = tempoCount + 4 + song.getTempoMap().getSegmentCount() * 12;
+        int noteCount = meterCount + 4 + song.getMeterMap().getSegmentCount() * 16;
+        int offsetCount = noteCount + 4;
+        for (int position : new int[] { tempoCount, meterCount, noteCount, offsetCount }) {
+            for (int count : new int[] { -1, Integer.MIN_VALUE, Integer.MAX_VALUE, 1 << 20 }) {
+                ByteBuffer in = write();
+                in.putInt(position, count);
+                assertThrows(IllegalArgumentException.class, () -> Song.readFrom(in));
+            }
+        }
+    }
+
+    @Test
+    void rejectsKeysAndEventOffsetsOutOfRange() {
+        int keys = 4 + 4 + song.getTempoMap().getSegmentCount() * 12 + 4 + song.getMeterMap().getSegmentCount() * 16
+                + 4 + 4;
+        int startTicks = keys + 2 * song.getNoteCount();
+        int offsets = keys + song.getNoteCount() * (1 + 1 + 8 + 8);
+
+        ByteBuffer in = write();
+        in.put(keys + 1, (byte) 0x80);
+        assertThrows(IllegalArgumentException.class, () -> Song.readFrom(in));
+
+        ByteBuffer unsorted = write();
+        unsorted.putLong(startTicks, 10_000);
+        assertThrows(IllegalArgumentException.class, () -> Song.readFrom(unsorted));
+
+        // The offsets are 0, 2, 3: two events over three notes.
+        for (int[] corruption : new int[][] { { 0, 1 }, { 1, 3 }, { 1, 0 }, { 1, -5 }, { 2, 4 }, { 2, 2 } }) {
+            ByteBuffer corrupt = write();
+            corrupt.putInt(offsets + 4 * corruption[0], corruption[1]);
+            assertThrows(IllegalArgumentException.class, () -> Song.readFrom(corrupt));
+        }
+    }
+
+    @Test
+    void readsBackAnEmptySong() {
+        Song empty = new Song.Builder().build();
+        ByteBuffer out = ByteBuffer.allocate(empty.serializedSize());
+        empty.writeTo(out);
+        assertEquals(0, Song.readFrom(out.flip()).getEventCount());
+    }
+
+    @Test
+    void rejectsTruncatedNotes() {
+        ByteBuffer in = write();
+        in.limit(in.limit() - 1);
+        assertThrows(IllegalArgumentException.class, () -> Song.readFrom(in));
+    }
+
+    private ByteBuffer write() {
+        ByteBuffer out = ByteBuffer.allocate(song.serializedSize());
+        song.writeTo(out);
+        return out.flip();
+    }
+}